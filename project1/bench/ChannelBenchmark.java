@@ -0,0 +1,144 @@
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Measures one node sending Application messages to its neighbors over loopback
+ * with the old synchronized write-and-flush per message versus OutboundChannel.
+ *
+ * Several producer threads send at once, like the MAP sender, marker broadcasts and
+ * snapshot forwarding do inside a node. Each model runs saturated, to get the
+ * messages/sec a node can push, and paced at a fixed offered rate below that, to get
+ * send-to-receive latency without measuring queueing behind an overload.
+ *
+ * usage: java -cp build ChannelBenchmark [degree] [messages] [producers] [clockSize] [rate]
+ */
+public class ChannelBenchmark {
+  public static void main(String[] args) throws Exception {
+    final int degree = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    final int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+    final int producers = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+    final int clockSize = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+    final int rate = args.length > 4 ? Integer.parseInt(args[4]) : 20_000;
+
+    System.out.println("degree=" + degree + " messages=" + messages + " producers=" + producers +
+      " clockSize=" + clockSize + " rate=" + rate);
+    System.out.println(String.format("%-12s %-10s %12s %10s %10s %10s",
+      "model", "load", "msgs/sec", "p50(us)", "p99(us)", "max(us)"));
+
+    // first round warms up the JIT and is not printed
+    for (int round = 0; round < 2; round++) {
+      for (final int offered : new int[] { 0, rate }) {
+        for (final boolean queued : new boolean[] { false, true }) {
+          run(queued, degree, messages, producers, clockSize, offered, round == 1);
+        }
+      }
+    }
+  }
+
+  private static void run(
+    final boolean queued,
+    final int degree,
+    final int messages,
+    final int producers,
+    final int clockSize,
+    final int rate,
+    final boolean print
+  ) throws Exception {
+    final long[] sentAt = new long[messages];
+    final long[] latency = new long[messages];
+    final CountDownLatch received = new CountDownLatch(messages);
+    final NodeRuntime runtime = new NodeRuntime(0);
+
+    // one receiving peer per neighbor
+    final ServerSocket[] servers = new ServerSocket[degree];
+    for (int i = 0; i < degree; i++) {
+      servers[i] = new ServerSocket(0);
+      final ServerSocket server = servers[i];
+      runtime.read(() -> {
+        try (final Socket socket = server.accept()) {
+          final ObjectInputStream inputStream = new ObjectInputStream(socket.getInputStream());
+          while (true) {
+            final Message.Application message = (Message.Application) inputStream.readObject();
+            final int seq = message.getVectorClock()[0];
+            latency[seq] = System.nanoTime() - sentAt[seq];
+            received.countDown();
+          }
+        } catch (Exception e) { /* sender closed */ }
+      });
+    }
+
+    final Socket[] sockets = new Socket[degree];
+    final ObjectOutputStream[] streams = new ObjectOutputStream[degree];
+    final OutboundChannel[] channels = new OutboundChannel[degree];
+    for (int i = 0; i < degree; i++) {
+      sockets[i] = new Socket("localhost", servers[i].getLocalPort());
+      sockets[i].setTcpNoDelay(true);
+      if (queued) {
+        channels[i] = new OutboundChannel(i, sockets[i]);
+        runtime.read(channels[i]::drain);
+      } else {
+        streams[i] = new ObjectOutputStream(sockets[i].getOutputStream());
+      }
+    }
+
+    final Object nodeLock = new Object();
+    final Thread[] threads = new Thread[producers];
+    // with an offered rate every message has a due time, otherwise send flat out
+    final long interval = rate > 0 ? 1_000_000_000L / rate : 0;
+    final long start = System.nanoTime();
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      threads[p] = new Thread(() -> {
+        final int[] clock = new int[clockSize];
+        for (int seq = producer; seq < messages; seq += producers) {
+          final long due = start + seq * interval;
+          while (System.nanoTime() < due) LockSupport.parkNanos(due - System.nanoTime());
+          final int target = seq % degree;
+          clock[0] = seq;
+          sentAt[seq] = System.nanoTime();
+          if (queued) {
+            channels[target].send(new Message.Application(0, clock));
+          } else {
+            // what Node.sendMessage used to do under the node monitor
+            synchronized (nodeLock) {
+              try {
+                streams[target].writeObject(new Message.Application(0, clock));
+                streams[target].flush();
+              } catch (Exception e) {
+                e.printStackTrace();
+              }
+            }
+          }
+        }
+      });
+      threads[p].start();
+    }
+    for (final Thread thread : threads) thread.join();
+    received.await();
+    final long elapsed = System.nanoTime() - start;
+
+    for (int i = 0; i < degree; i++) {
+      if (queued) channels[i].close();
+      else sockets[i].close();
+      servers[i].close();
+    }
+    runtime.shutdown();
+
+    if (print) {
+      Arrays.sort(latency);
+      System.out.println(String.format("%-12s %-10s %12d %10d %10d %10d",
+        queued ? "queued" : "synchronous",
+        rate > 0 ? "paced" : "saturated",
+        (long) (messages / (elapsed / 1e9)),
+        latency[messages / 2] / 1000,
+        latency[(int) (messages * 0.99)] / 1000,
+        latency[messages - 1] / 1000));
+    }
+  }
+}
@@ -0,0 +1,324 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Compares the thread-per-task execution model Node used to have with NodeRuntime.
+ *
+ * Every simulated node has one blocking reader per incoming edge, activates the way
+ * Node.tryActivate does when a message arrives, and node 0 re-arms a snapshot timer.
+ * Only the execution model differs between the two runs, so the difference in thread
+ * count, heap and activation latency comes from the runtime alone.
+ *
+ * usage: java -cp build RuntimeBenchmark [nodes] [degree] [maxNumber] [minSendDelay]
+ */
+public class RuntimeBenchmark {
+  private static final int MIN_PER_ACTIVE = 6;
+  private static final int MAX_PER_ACTIVE = 10;
+  private static final int SNAPSHOT_DELAY = 50;
+
+  public static void main(String[] args) throws Exception {
+    final int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+    final int degree = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    final int maxNumber = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+    final int minSendDelay = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+    System.out.println("nodes=" + nodes + " degree=" + degree + " maxNumber=" + maxNumber + " minSendDelay=" + minSendDelay);
+    System.out.println(String.format("%-16s %10s %10s %10s %12s %12s %12s",
+      "model", "peak", "started", "heapMB", "act-p50(us)", "act-p99(us)", "wall(ms)"));
+
+    // run each model twice and keep the second run to leave JIT warmup out of it
+    for (int round = 0; round < 2; round++) {
+      final boolean print = round == 1;
+      run(new ThreadPerTask(), nodes, degree, maxNumber, minSendDelay, print);
+      run(new Runtime(nodes), nodes, degree, maxNumber, minSendDelay, print);
+    }
+  }
+
+  private static void run(
+    final Model model,
+    final int nodes,
+    final int degree,
+    final int maxNumber,
+    final int minSendDelay,
+    final boolean print
+  ) throws Exception {
+    System.gc();
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    threads.resetPeakThreadCount();
+    final long startedBefore = threads.getTotalStartedThreadCount();
+
+    final Cluster cluster = new Cluster(model, nodes, degree, maxNumber, minSendDelay);
+
+    // sample heap while the workload runs
+    final AtomicLong peakHeap = new AtomicLong();
+    final Thread sampler = new Thread(() -> {
+      final java.lang.Runtime jvm = java.lang.Runtime.getRuntime();
+      while (!Thread.currentThread().isInterrupted()) {
+        peakHeap.accumulateAndGet(jvm.totalMemory() - jvm.freeMemory(), Math::max);
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    });
+    sampler.start();
+
+    final long start = System.nanoTime();
+    cluster.start();
+    cluster.awaitQuiescence();
+    final long wall = (System.nanoTime() - start) / 1_000_000;
+
+    sampler.interrupt();
+    sampler.join();
+    final int peak = threads.getPeakThreadCount();
+    final long started = threads.getTotalStartedThreadCount() - startedBefore;
+    model.shutdown();
+
+    if (print) {
+      final long[] latencies = cluster.activationLatencies();
+      System.out.println(String.format("%-16s %10d %10d %10d %12d %12d %12d",
+        model.name(), peak, started, peakHeap.get() / (1024 * 1024),
+        percentile(latencies, 0.50) / 1000, percentile(latencies, 0.99) / 1000, wall));
+    }
+  }
+
+  private static long percentile(final long[] values, final double p) {
+    if (values.length == 0) return 0;
+    Arrays.sort(values);
+    return values[(int) Math.min(values.length - 1, Math.floor(p * values.length))];
+  }
+
+  /**
+   * The execution primitives a node needs
+   */
+  interface Model {
+    String name();
+    void read(Runnable reader);
+    void activate(Runnable activation);
+    void pace(Runnable next, long delay);
+    void timer(Runnable task, long delay);
+    void shutdown();
+  }
+
+  /**
+   * What Node.run used to do: a new platform thread per reader, activation and timer
+   */
+  static class ThreadPerTask implements Model {
+    private final List<Thread> started = new ArrayList<>();
+
+    public String name() { return "thread-per-task"; }
+
+    public void read(final Runnable reader) { start(reader); }
+
+    public void activate(final Runnable activation) { start(activation); }
+
+    public void pace(final Runnable next, final long delay) {
+      // the activation thread sleeps in place between sends
+      sleep(delay);
+      next.run();
+    }
+
+    public void timer(final Runnable task, final long delay) {
+      start(() -> {
+        sleep(delay);
+        task.run();
+      });
+    }
+
+    public void shutdown() {
+      synchronized (started) {
+        for (final Thread thread : started) thread.interrupt();
+      }
+    }
+
+    private void start(final Runnable task) {
+      final Thread thread = new Thread(task);
+      thread.setDaemon(true);
+      synchronized (started) {
+        started.add(thread);
+      }
+      thread.start();
+    }
+
+    private static void sleep(final long delay) {
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * One NodeRuntime per simulated node, as every node process owns its own
+   */
+  static class Runtime implements Model {
+    private final NodeRuntime[] runtimes;
+
+    Runtime(final int nodes) {
+      runtimes = new NodeRuntime[nodes];
+      for (int i = 0; i < nodes; i++) runtimes[i] = new NodeRuntime(i);
+    }
+
+    public String name() { return "node-runtime"; }
+
+    public void read(final Runnable reader) { on(reader).read(reader); }
+
+    public void activate(final Runnable activation) { on(activation).execute(activation); }
+
+    public void pace(final Runnable next, final long delay) { on(next).schedule(next, delay); }
+
+    public void timer(final Runnable task, final long delay) { on(task).schedule(task, delay); }
+
+    public void shutdown() {
+      for (final NodeRuntime runtime : runtimes) runtime.shutdown();
+    }
+
+    private NodeRuntime on(final Runnable task) {
+      return runtimes[((Owned) task).owner()];
+    }
+  }
+
+  /**
+   * Tasks carry the id of the node that submits them so per-node runtimes can be picked
+   */
+  interface Owned extends Runnable {
+    int owner();
+  }
+
+  /**
+   * Circulant topology of simulated nodes exchanging timestamps over blocking queues
+   */
+  static class Cluster {
+    private final Model model;
+    private final SimNode[] nodes;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    private volatile boolean stopped = false;
+
+    Cluster(final Model model, final int count, final int degree, final int maxNumber, final int minSendDelay) {
+      this.model = model;
+      this.nodes = new SimNode[count];
+      for (int i = 0; i < count; i++) nodes[i] = new SimNode(i, maxNumber, minSendDelay);
+      // connect every node to the next degree/2 nodes around the ring
+      for (int i = 0; i < count; i++) {
+        for (int k = 1; k <= degree / 2; k++) {
+          final int j = (i + k) % count;
+          nodes[i].connect(nodes[j]);
+          nodes[j].connect(nodes[i]);
+        }
+      }
+    }
+
+    void start() {
+      for (final SimNode node : nodes) node.listen();
+      nodes[0].armTimer();
+      nodes[0].tryActivate(System.nanoTime());
+    }
+
+    void awaitQuiescence() throws InterruptedException {
+      // quiet when no node is active and nothing is left in any channel
+      while (active.get() > 0 || inFlight.get() > 0) Thread.sleep(5);
+      stopped = true;
+    }
+
+    long[] activationLatencies() {
+      return latencies.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    class SimNode {
+      private final int id;
+      private final int minSendDelay;
+      private final Random random = new Random();
+      private final List<SimNode> neighbors = new ArrayList<>();
+      private final List<BlockingQueue<Long>> inboxes = new ArrayList<>();
+      private final List<BlockingQueue<Long>> outboxes = new ArrayList<>();
+      private int messageLimit;
+      private int queuedMessages;
+      private boolean isActive = false;
+
+      SimNode(final int id, final int maxNumber, final int minSendDelay) {
+        this.id = id;
+        this.messageLimit = maxNumber;
+        this.minSendDelay = minSendDelay;
+      }
+
+      void connect(final SimNode neighbor) {
+        final BlockingQueue<Long> channel = new LinkedBlockingQueue<>();
+        neighbors.add(neighbor);
+        outboxes.add(channel);
+        neighbor.inboxes.add(channel);
+      }
+
+      void listen() {
+        for (final BlockingQueue<Long> inbox : inboxes) {
+          model.read(owned(() -> {
+            try {
+              while (!stopped) {
+                inbox.take();
+                inFlight.decrementAndGet();
+                tryActivate(System.nanoTime());
+              }
+            } catch (InterruptedException e) { /* shutting down */ }
+          }));
+        }
+      }
+
+      void armTimer() {
+        model.timer(owned(() -> {
+          if (!stopped) armTimer();
+        }), SNAPSHOT_DELAY);
+      }
+
+      synchronized void tryActivate(final long received) {
+        if (!isActive && messageLimit > 0) {
+          isActive = true;
+          active.incrementAndGet();
+          queuedMessages += random.nextInt(MAX_PER_ACTIVE - MIN_PER_ACTIVE + 1) + MIN_PER_ACTIVE;
+          model.activate(owned(() -> {
+            latencies.add(System.nanoTime() - received);
+            send();
+          }));
+        }
+      }
+
+      private void send() {
+        final boolean more;
+        synchronized (this) {
+          if (queuedMessages > 0 && messageLimit > 0) {
+            final int target = random.nextInt(outboxes.size());
+            inFlight.incrementAndGet();
+            outboxes.get(target).add(System.nanoTime());
+            queuedMessages--;
+            messageLimit--;
+            more = true;
+          } else {
+            isActive = false;
+            active.decrementAndGet();
+            more = false;
+          }
+        }
+        if (more) model.pace(owned(this::send), minSendDelay);
+      }
+
+      private Owned owned(final Runnable task) {
+        return new Owned() {
+          public int owner() { return id; }
+          public void run() { task.run(); }
+        };
+      }
+    }
+  }
+}
@@ -0,0 +1,25 @@
+/**
+ * Uniform activations sent in bursts of burstSize back to back messages, with
+ * the burst's share of minSendDelay between bursts, so the average rate matches
+ * the uniform workload while the channels see spikes.
+ */
+public class BurstyWorkload extends UniformWorkload {
+  private int burst = 0;
+
+  public BurstyWorkload(final Config config, final int[] neighbors) {
+    super(config, neighbors);
+  }
+
+  @Override
+  public int activation() {
+    burst = 0;
+    return super.activation();
+  }
+
+  @Override
+  public long nextDelay() {
+    if (++burst < config.burstSize) return 0;
+    burst = 0;
+    return config.burstSize * config.minSendDelay * 1_000_000L;
+  }
+}
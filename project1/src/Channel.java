@@ -0,0 +1,30 @@
+/**
+ * Outgoing half of a channel to one neighbor, handed out by a Transport.
+ *
+ * Messages reach the neighbor in exactly the order they were sent, which keeps
+ * the channel FIFO for markers.
+ */
+public interface Channel {
+  int getNeighbor();
+
+  /**
+   * Queue a message for the neighbor without blocking.
+   *
+   * Note:
+   *  callers that need an ordering across several messages (like an owed
+   *  marker and the application message behind it) hold the channel's
+   *  monitor while sending, which is the send lock of this channel.
+   */
+  void send(Message message);
+
+  /**
+   * Number of messages sent and not handed to the neighbor yet
+   */
+  int depth();
+
+  /**
+   * Queue a last message to a peer that may be closing the edge at the same
+   * time, get whatever is still queued out and close the channel
+   */
+  void close(Message farewell);
+}
@@ -0,0 +1,162 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Append-only overflow for the channel states of one recorded channel.
+ *
+ * Each record is one clock written as fixed-width ints, so nothing but the mapped
+ * pages holds the records once a channel outgrows its in-memory limit. The file is
+ * mapped a chunk at a time as it grows, with chunks sized to whole records.
+ *
+ * A spill is streamed a chunk at a time when its ChannelSummary is serialized, and
+ * the receiving side appends it to a spill of its own, so the records never sit
+ * in one array on either side.
+ *
+ * Only the reader thread of the channel appends, so there is no locking here.
+ */
+public class ChannelSpill {
+  private static final int CHUNK_BYTES = 1 << 20;
+
+  private final File file;
+  private final FileChannel channel;
+  private final int width;
+  private final int chunkBytes;
+  private MappedByteBuffer chunk;
+  private long chunkStart = 0;
+  private int records = 0;
+
+  /**
+   * New spill in a temporary file of the directory, which stays until deleted
+   */
+  public static ChannelSpill create(final File directory, final String prefix, final int width) {
+    try {
+      final File file = File.createTempFile(prefix, ".spill", directory);
+      return new ChannelSpill(file, width);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public ChannelSpill(final File file, final int width) {
+    this.file = file;
+    this.width = width;
+    this.chunkBytes = Math.max(1, CHUNK_BYTES / (width * Integer.BYTES)) * width * Integer.BYTES;
+    try {
+      this.channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public void append(final int[] clock) {
+    nextChunk();
+    for (int value : clock) {
+      chunk.putInt(value);
+    }
+    records++;
+  }
+
+  public int size() {
+    return records;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public File getDirectory() {
+    return file.getParentFile();
+  }
+
+  /**
+   * Map the next chunk once the current one is full
+   */
+  private void nextChunk() {
+    if (chunk != null && chunk.hasRemaining()) return;
+    try {
+      if (chunk != null) chunkStart += chunkBytes;
+      chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart, chunkBytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * The i-th record
+   */
+  public int[] get(final int i) {
+    final ByteBuffer buffer = ByteBuffer.allocate(width * Integer.BYTES);
+    read(buffer, (long) i * buffer.capacity());
+    buffer.flip();
+    final int[] clock = new int[width];
+    buffer.asIntBuffer().get(clock);
+    return clock;
+  }
+
+  /**
+   * Write every record, one chunk at a time
+   */
+  public void writeTo(final DataOutput out) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(chunkBytes);
+    final long length = (long) records * width * Integer.BYTES;
+    for (long position = 0; position < length; position += buffer.limit()) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), length - position));
+      read(buffer, position);
+      out.write(buffer.array(), 0, buffer.limit());
+    }
+  }
+
+  /**
+   * Append records written by writeTo, one chunk at a time
+   */
+  public void readFrom(final DataInput in, final int count) throws IOException {
+    final byte[] buffer = new byte[chunkBytes];
+    long remaining = (long) count * width * Integer.BYTES;
+    while (remaining > 0) {
+      final int length = (int) Math.min(buffer.length, remaining);
+      in.readFully(buffer, 0, length);
+      for (int offset = 0; offset < length; ) {
+        nextChunk();
+        final int put = Math.min(chunk.remaining(), length - offset);
+        chunk.put(buffer, offset, put);
+        offset += put;
+      }
+      remaining -= length;
+    }
+    records += count;
+  }
+
+  /**
+   * Fill the buffer from the file, starting at a byte position
+   */
+  private void read(final ByteBuffer buffer, final long position) {
+    try {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) < 0) break;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Close and remove the file, the mapping goes away with the last chunk
+   */
+  public void delete() {
+    chunk = null;
+    try {
+      channel.close();
+    } catch (IOException e) { /* already closed */ }
+    file.delete();
+  }
+}
@@ -1,4 +1,7 @@
-public class ChannelState {
+import java.io.Serializable;
+
+
+public class ChannelState implements Serializable {
     private final int destination;
     private final int source;
     private final int[] clock;
@@ -0,0 +1,104 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+/**
+ * Compact state of one recorded channel: how many messages were in transit,
+ * and the clocks of some or all of them packed one after another.
+ *
+ * The clocks of a channel that spilled stay in its ChannelSpill. Serializing the
+ * summary streams the spill a chunk at a time and hands it over, so the sender
+ * deletes its file and the receiving side reads the records into a spill of its
+ * own in the same directory, or the temporary directory if it has no such one.
+ */
+public class ChannelSummary implements Serializable {
+    private final int source;
+    private final int destination;
+    private final int count;
+    private final int width;
+    private transient int[] clocks;
+    private transient ChannelSpill spill;
+
+    public ChannelSummary(final int source, final int destination, final int count, final int width, final int[] clocks) {
+        this.source = source;
+        this.destination = destination;
+        this.count = count;
+        this.width = width;
+        this.clocks = clocks;
+    }
+
+    /**
+     * Summary of every message in a spill, which it takes over
+     */
+    public ChannelSummary(final int source, final int destination, final ChannelSpill spill) {
+        this.source = source;
+        this.destination = destination;
+        this.count = spill.size();
+        this.width = spill.getWidth();
+        this.spill = spill;
+    }
+
+    public int getSource() {
+        return source;
+    }
+
+    public int getDestination() {
+        return destination;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Number of messages whose clock is included
+     */
+    public int getSampleCount() {
+        if (spill != null) return spill.size();
+        return width == 0 ? 0 : clocks.length / width;
+    }
+
+    public int[] getSample(final int i) {
+        if (spill != null) return spill.get(i);
+        return Arrays.copyOfRange(clocks, i * width, (i + 1) * width);
+    }
+
+    /**
+     * Remove the spill behind the summary once nothing needs its clocks
+     */
+    public void release() {
+        if (spill != null) spill.delete();
+        spill = null;
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeBoolean(spill != null);
+        if (spill == null) {
+            out.writeObject(clocks);
+            return;
+        }
+        out.writeUTF(spill.getDirectory().getPath());
+        out.writeInt(spill.size());
+        spill.writeTo(out);
+        // the receiving side owns the records from here on
+        release();
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (!in.readBoolean()) {
+            clocks = (int[]) in.readObject();
+            return;
+        }
+        File directory = new File(in.readUTF());
+        if (!directory.isDirectory()) directory = new File(System.getProperty("java.io.tmpdir"));
+        final int records = in.readInt();
+        spill = ChannelSpill.create(directory, "summary-from-" + source + "-", width);
+        spill.readFrom(in, records);
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Runs every node of a config in this JVM over a MemoryNetwork, so a topology
+ * can be run and measured on one machine without the launcher.
+ *
+ *  java -cp build Cluster <config> [verbose]
+ *
+ * Node logs are dropped unless verbose, since every node shares the one stdout.
+ * Once every node halted it prints the snapshot collection time, the messages
+ * per second and the peak heap per node, sampled every few milliseconds, and the
+ * time senders were held up for credits under flow control.
+ */
+public class Cluster {
+  private static final long HEAP_SAMPLE_INTERVAL = 10;
+
+  public static void main(String[] args) throws Exception {
+    final File configFile = new File(args[0]);
+    final Config config = Config.fromFile(configFile);
+    final boolean verbose = args.length > 1 && args[1].equals("verbose");
+    final PrintStream out = System.out;
+    if (!verbose) {
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    final Runtime heap = Runtime.getRuntime();
+    System.gc();
+    final long baseline = heap.totalMemory() - heap.freeMemory();
+    final AtomicLong peak = new AtomicLong(baseline);
+    final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread thread = new Thread(r, "cluster-heap-sampler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    sampler.scheduleAtFixedRate(
+      () -> peak.accumulateAndGet(heap.totalMemory() - heap.freeMemory(), Math::max),
+      0, HEAP_SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+
+    final MemoryNetwork network = new MemoryNetwork(config);
+    final long started = System.nanoTime();
+    // initiators block until every node is connected, so every node starts on its own thread
+    final List<Thread> starters = new ArrayList<>();
+    for (int i = 0; i < config.nodes; i++) {
+      final Node node = config.node(i);
+      final Transport transport = network.transport(i);
+      final Thread starter = new Thread(() -> {
+        try {
+          node.run(config, configFile, transport);
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }, "cluster-start-" + i);
+      starter.start();
+      starters.add(starter);
+    }
+    for (final Thread starter : starters) {
+      starter.join();
+    }
+    for (int i = 0; i < config.nodes; i++) {
+      config.node(i).awaitHalt();
+    }
+    final long elapsed = System.nanoTime() - started;
+    sampler.shutdownNow();
+
+    final LongSummaryStatistics latency = config.node(0).getSnapshotLatency();
+    final double seconds = elapsed / 1e9;
+    out.println(config.nodes + " nodes halted after " + elapsed / 1_000_000 + " ms");
+    out.println(latency.getCount() + " snapshots collected in " +
+      (latency.getCount() == 0 ? "-" : latency.getMin() + "/" + (long) latency.getAverage() + "/" + latency.getMax()) + " us min/avg/max");
+    out.println(network.getMessages() + " messages, " + network.getApplicationMessages() + " application, " +
+      (long) (network.getMessages() / seconds) + " messages/s");
+    out.println((peak.get() - baseline) / config.nodes / 1024 + " KiB of peak heap per node");
+    if (config.channelCredits > 0) {
+      int stalls = 0;
+      long stalledNanos = 0;
+      for (int i = 0; i < config.nodes; i++) {
+        stalls += config.node(i).getFlowControl().getStalls();
+        stalledNanos += config.node(i).getFlowControl().getStalledNanos();
+      }
+      out.println(stalls + " credit stalls for " + stalledNanos / 1_000_000 + " ms over every channel");
+    }
+  }
+}
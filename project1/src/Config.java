@@ -1,5 +1,12 @@
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 
 
 public class Config {
@@ -10,7 +17,34 @@ public class Config {
   public final int snapshotDelay;
   public final int maxNumber;
 
-  public final Node[] nodeConfigs;
+  public final Topology topology;
+  // built on first use, so a node process only builds its own
+  private final Node[] nodeConfigs;
+
+  // optional settings, read from `name value` lines after the neighbor lists
+  public final boolean differentialClocks;
+  public final boolean convergecast;
+  public final String snapshotTree;
+  public final Set<Integer> initiators;
+  public final int concurrentSnapshots;
+  public final String snapshotEngine;
+  public final boolean deltaReports;
+  public final String channelRecording;
+  public final int channelSamples;
+  public final int spillThreshold;
+  public final String spillDirectory;
+  public final boolean legacyOutput;
+  public final String terminationDetection;
+  public final String snapshotSchedule;
+  public final int minSnapshotDelay;
+  public final int maxSnapshotDelay;
+  public final boolean earlyAbort;
+  public final boolean trace;
+  public final String workload;
+  public final double zipfExponent;
+  public final int burstSize;
+  public final int sendRate;
+  public final int channelCredits;
 
   public Config(
     final int nodes,
@@ -19,7 +53,8 @@ public class Config {
     final int minSendDelay,
     final int snapshotDelay,
     final int maxNumber,
-    final Node[] nodeConfigs
+    final Topology topology,
+    final Map<String, String> options
   ) {
     this.nodes = nodes;
     this.minPerActive = minPerActive;
@@ -27,72 +62,161 @@ public class Config {
     this.minSendDelay = minSendDelay;
     this.snapshotDelay = snapshotDelay;
     this.maxNumber = maxNumber;
-    this.nodeConfigs = nodeConfigs;
+    this.topology = topology;
+    this.nodeConfigs = new Node[nodes];
+    this.differentialClocks = Boolean.parseBoolean(options.getOrDefault("differentialClocks", "false"));
+    this.convergecast = Boolean.parseBoolean(options.getOrDefault("convergecast", "false"));
+    this.snapshotTree = options.getOrDefault("snapshotTree", "marker");
+    this.initiators = new TreeSet<>();
+    for (final String initiator : options.getOrDefault("initiators", "0").split("[\\s,]+")) {
+      initiators.add(Integer.parseInt(initiator));
+    }
+    this.concurrentSnapshots = Integer.parseInt(options.getOrDefault("concurrentSnapshots", "1"));
+    this.snapshotEngine = options.getOrDefault("snapshotEngine", "chandyLamport");
+    this.deltaReports = Boolean.parseBoolean(options.getOrDefault("deltaReports", "false"));
+    this.channelRecording = options.getOrDefault("channelRecording", "count");
+    this.channelSamples = Integer.parseInt(options.getOrDefault("channelSamples", "0"));
+    this.spillThreshold = Integer.parseInt(options.getOrDefault("spillThreshold", "4096"));
+    this.spillDirectory = options.getOrDefault("spillDirectory", System.getProperty("java.io.tmpdir"));
+    this.legacyOutput = Boolean.parseBoolean(options.getOrDefault("legacyOutput", "true"));
+    this.terminationDetection = options.getOrDefault("terminationDetection", "snapshot");
+    this.snapshotSchedule = options.getOrDefault("snapshotSchedule", "fixed");
+    this.minSnapshotDelay = Integer.parseInt(options.getOrDefault("minSnapshotDelay", String.valueOf(snapshotDelay / 4)));
+    this.maxSnapshotDelay = Integer.parseInt(options.getOrDefault("maxSnapshotDelay", String.valueOf(snapshotDelay * 4)));
+    this.earlyAbort = Boolean.parseBoolean(options.getOrDefault("earlyAbort", "false"));
+    this.trace = Boolean.parseBoolean(options.getOrDefault("trace", "false"));
+    this.workload = options.getOrDefault("workload", "uniform");
+    this.zipfExponent = Double.parseDouble(options.getOrDefault("zipfExponent", "1.0"));
+    this.burstSize = Integer.parseInt(options.getOrDefault("burstSize", "8"));
+    this.sendRate = Integer.parseInt(options.getOrDefault("sendRate", "1000"));
+    this.channelCredits = Integer.parseInt(options.getOrDefault("channelCredits", "0"));
   }
 
-  public static Config fromFile(final File configFile) throws Exception {
-    final Scanner configReader = new Scanner(configFile);
+  /**
+   * The node with an id, built from the topology the first time it is asked for
+   */
+  public synchronized Node node(final int id) {
+    if (nodeConfigs[id] == null) {
+      nodeConfigs[id] = new Node(id, topology.getHostName(id), topology.getListenPort(id), topology.neighbors(id));
+    }
+    return nodeConfigs[id];
+  }
 
-    clearEmptyLines(configReader);
+  /**
+   * Parse a config in one pass over its lines, straight into the topology arrays.
+   * Lines that do not start with a number are skipped, as is anything after a `#`.
+   */
+  public static Config fromFile(final File configFile) throws Exception {
+    try (final BufferedReader configReader = new BufferedReader(new FileReader(configFile), 1 << 16)) {
+      final Line line = new Line(configReader);
+
+      // read first line with 6 main tokens,
+      line.nextValid();
+      final int nodes = line.nextInt();
+      final int minPerActive = line.nextInt();
+      final int maxPerActive = line.nextInt();
+      final int minSendDelay = line.nextInt();
+      final int snapshotDelay = line.nextInt();
+      final int maxNumber = line.nextInt();
+
+      // read node descriptions, a few hosts serve every node so their names are shared
+      final String[] hostNames = new String[nodes];
+      final int[] listenPorts = new int[nodes];
+      final Map<String, String> hosts = new HashMap<>();
+      for (int i = 0; i < nodes; i++) {
+        line.nextValid();
+        line.nextInt(); // the node id, nodes are listed in id order
+        final String hostName = line.next();
+        hostNames[i] = hosts.computeIfAbsent(hostName, h -> h);
+        listenPorts[i] = line.nextInt();
+      }
 
-    // read first line with 6 main tokens,
-    final int nodes = configReader.nextInt();
-    final int minPerActive = configReader.nextInt();
-    final int maxPerActive = configReader.nextInt();
-    final int minSendDelay = configReader.nextInt();
-    final int snapshotDelay = configReader.nextInt();
-    final int maxNumber = configReader.nextInt();
+      // read neighbors for nodes
+      final int[] offsets = new int[nodes + 1];
+      int[] adjacency = new int[Math.max(16, nodes * 4)];
+      int edges = 0;
+      for (int i = 0; i < nodes; i++) {
+        line.nextValid();
+        while (line.hasNextInt()) {
+          if (edges == adjacency.length) adjacency = Arrays.copyOf(adjacency, edges * 2);
+          adjacency[edges++] = line.nextInt();
+        }
+        offsets[i + 1] = edges;
+      }
 
-    final Node[] nodeConfigs = new Node[nodes];
+      // read optional settings until the end of the file
+      final Map<String, String> options = new HashMap<>();
+      String optionLine;
+      while ((optionLine = configReader.readLine()) != null) {
+        optionLine = optionLine.replaceAll("#.*", "").trim();
+        if (optionLine.isEmpty()) continue;
+        final String[] option = optionLine.split("\\s+", 2);
+        options.put(option[0], option.length > 1 ? option[1] : "");
+      }
 
-    // read node descriptions
-    for (int i = 0; i < nodes; i++) {
-      clearEmptyLines(configReader);
+      return new Config(
+        nodes,
+        minPerActive,
+        maxPerActive,
+        minSendDelay,
+        snapshotDelay,
+        maxNumber,
+        new Topology(hostNames, listenPorts, offsets, Arrays.copyOf(adjacency, edges)),
+        options
+      );
+    }
+  }
 
-      final int nodeid = configReader.nextInt();
-      final String hostName = configReader.next();
-      final int listenPort = configReader.nextInt();
+  /**
+   * Cursor over the tokens of the current line of a config
+   */
+  private static class Line {
+    private final BufferedReader reader;
+    private String text = "";
+    private int position = 0;
 
-      nodeConfigs[i] = new Node(
-        nodeid,
-        hostName,
-        listenPort
-      );
+    Line(final BufferedReader reader) {
+      this.reader = reader;
+    }
 
-      // clear existing buffer
-      configReader.nextLine();
+    /**
+     * Move to the next line that starts with a number
+     */
+    void nextValid() throws IOException {
+      while (true) {
+        text = reader.readLine();
+        if (text == null) throw new IOException("config ends early");
+        final int comment = text.indexOf('#');
+        if (comment != -1) text = text.substring(0, comment);
+        position = 0;
+        if (hasNextInt()) return;
+      }
     }
-    
-    // read neighbors for nodes
-    for (int i = 0; i < nodes; i++) {
-      clearEmptyLines(configReader);
 
-      final Scanner neighborReader = new Scanner(configReader.nextLine());
+    boolean hasNextInt() {
+      skipSpaces();
+      return position < text.length() && Character.isDigit(text.charAt(position));
+    }
 
-      while (neighborReader.hasNextInt()) {
-        final int neighbor = neighborReader.nextInt();
-        nodeConfigs[i].getNeighbors().add(neighbor);
+    int nextInt() throws IOException {
+      if (!hasNextInt()) throw new IOException("expected a number in \"" + text.trim() + "\"");
+      int value = 0;
+      while (position < text.length() && Character.isDigit(text.charAt(position))) {
+        value = value * 10 + text.charAt(position++) - '0';
       }
-
-      // close reader
-      neighborReader.close();
+      return value;
     }
 
-    // close reader
-    configReader.close();
-
-    return new Config(
-      nodes,
-      minPerActive,
-      maxPerActive,
-      minSendDelay,
-      snapshotDelay,
-      maxNumber,
-      nodeConfigs
-    );
-  }
+    String next() throws IOException {
+      skipSpaces();
+      final int start = position;
+      while (position < text.length() && !Character.isWhitespace(text.charAt(position))) position++;
+      if (start == position) throw new IOException("expected a host name in \"" + text.trim() + "\"");
+      return text.substring(start, position);
+    }
 
-  private static void clearEmptyLines(final Scanner scanner) {
-    while (!scanner.hasNextInt()) scanner.nextLine();
+    private void skipSpaces() {
+      while (position < text.length() && Character.isWhitespace(text.charAt(position))) position++;
+    }
   }
 }
@@ -0,0 +1,107 @@
+/**
+ * Singhal-Kshemkalyani differential vector clock.
+ *
+ * Each Application message only carries the components that changed since the
+ * last send on its channel, found from the own-component value at the last send to
+ * every neighbor (lastSent) and at the last update of every component (lastUpdate).
+ * This relies on FIFO channels, which the node already requires for its markers.
+ *
+ * The receiver applies the changes in place and rebuilds the sender's full clock per
+ * incoming channel, so recorded channel states still hold full clocks.
+ *
+ * lastSent and lastUpdate have to move together with the clock, so unlike the
+ * full clock every operation here holds the clock's monitor. The critical sections
+ * only touch the changed components, apart from the scan for changes on send.
+ */
+public class DifferentialClock extends VectorClock {
+  private final int id;
+  // own component value at the last send to each node
+  private final int[] lastSent;
+  // own component value at the last update of each component
+  private final int[] lastUpdate;
+  // full clock of each sender as of its last message, rebuilt from the changes
+  private final int[][] received;
+
+  public DifferentialClock(final int size, final int id) {
+    super(size);
+    this.id = id;
+    this.lastSent = new int[size];
+    this.lastUpdate = new int[size];
+    this.received = new int[size][];
+  }
+
+  @Override
+  public synchronized int tick(final int id) {
+    final int own = super.tick(id);
+    lastUpdate[id] = own;
+    return own;
+  }
+
+  @Override
+  public synchronized void merge(final int[] other) {
+    for (int i = 0; i < other.length; i++) {
+      update(i, other[i]);
+    }
+  }
+
+  @Override
+  public synchronized Message.Application stamp(final int id, final int target) {
+    final int own = tick(id);
+    // every component updated after the last send to the target
+    int changes = 0;
+    for (int i = 0; i < lastUpdate.length; i++) {
+      if (lastUpdate[i] > lastSent[target]) changes++;
+    }
+    final int[] changedIndices = new int[changes];
+    final int[] changedValues = new int[changes];
+    for (int i = 0, c = 0; c < changes; i++) {
+      if (lastUpdate[i] > lastSent[target]) {
+        changedIndices[c] = i;
+        changedValues[c] = clock.get(i);
+        c++;
+      }
+    }
+    lastSent[target] = own;
+    return new Message.Application(id, changedIndices, changedValues);
+  }
+
+  /**
+   * Note:
+   *  the returned clock is reused for the sender's next message, which is
+   *  fine since messages on a channel are received one at a time
+   */
+  @Override
+  public synchronized int[] receive(final int id, final Message.Application message) {
+    // increment first so the updates below are newer than every previous send
+    tick(id);
+    final int source = message.getSource();
+    if (received[source] == null) {
+      received[source] = new int[lastUpdate.length];
+    }
+    final int[] sender = received[source];
+    if (message.isDifferential()) {
+      final int[] changedIndices = message.getChangedIndices();
+      final int[] changedValues = message.getChangedValues();
+      for (int c = 0; c < changedIndices.length; c++) {
+        sender[changedIndices[c]] = changedValues[c];
+        update(changedIndices[c], changedValues[c]);
+      }
+    } else {
+      System.arraycopy(message.getVectorClock(), 0, sender, 0, sender.length);
+      for (int i = 0; i < sender.length; i++) {
+        update(i, sender[i]);
+      }
+    }
+    return sender;
+  }
+
+  /**
+   * Take the max of one component, remembering when it changed
+   */
+  private void update(final int i, final int value) {
+    if (value > clock.get(i)) {
+      clock.set(i, value);
+      lastUpdate[i] = clock.get(id);
+    }
+  }
+}
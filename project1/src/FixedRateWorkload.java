@@ -0,0 +1,17 @@
+/**
+ * Uniform activations and targets, sent at sendRate messages per second instead of
+ * minSendDelay apart, for rates well above the millisecond a delay can express.
+ */
+public class FixedRateWorkload extends UniformWorkload {
+  private final long interval;
+
+  public FixedRateWorkload(final Config config, final int[] neighbors) {
+    super(config, neighbors);
+    this.interval = 1_000_000_000L / config.sendRate;
+  }
+
+  @Override
+  public long nextDelay() {
+    return interval;
+  }
+}
@@ -0,0 +1,126 @@
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Credit-based flow control of the Application messages on each outgoing channel.
+ *
+ * A sender starts with `credits` for every neighbor and spends one per Application
+ * message, while the receiver grants them back in batches once it has handled the
+ * messages. A sender out of credits holds its next message instead of queueing it,
+ * so a channel never carries more than `credits` messages the receiver has not
+ * handled. Nothing else on the channel takes credits, so markers and reports are
+ * never held back, and held messages are not stamped yet, so FIFO order and the
+ * cuts are unaffected.
+ *
+ * Both ends of every channel are kept here, under the monitor of the object.
+ */
+public class FlowControl {
+  private final int batch;
+  private final Map<Integer, Link> links = new HashMap<>();
+
+  public FlowControl(final int credits, final int[] neighbors) {
+    // half the window keeps the sender going while a grant is on its way
+    this.batch = Math.max(1, credits / 2);
+    for (final int neighbor : neighbors) {
+      links.put(neighbor, new Link(credits));
+    }
+  }
+
+  private static class Link {
+    // sender side
+    int credits;
+    long stalledSince = -1;
+    int stalls = 0;
+    long stalledNanos = 0;
+    int peakDepth = 0;
+    // receiver side, messages handled and not granted back yet
+    int owed = 0;
+
+    Link(final int credits) {
+      this.credits = credits;
+    }
+  }
+
+  /**
+   * Spend a credit on a message to the neighbor, or mark the channel as stalled
+   * and return false if there is none left
+   */
+  public synchronized boolean acquire(final int neighbor) {
+    final Link link = links.get(neighbor);
+    if (link.credits > 0) {
+      link.credits--;
+      return true;
+    }
+    if (link.stalledSince == -1) {
+      link.stalledSince = System.nanoTime();
+      link.stalls++;
+    }
+    return false;
+  }
+
+  /**
+   * Track the depth of the outgoing queue after a message was queued on it
+   */
+  public synchronized void sent(final int neighbor, final int depth) {
+    final Link link = links.get(neighbor);
+    link.peakDepth = Math.max(link.peakDepth, depth);
+  }
+
+  /**
+   * Take in credits granted by the neighbor, returning whether the sender was
+   * stalled on it and can go on
+   */
+  public synchronized boolean granted(final int neighbor, final int credits) {
+    final Link link = links.get(neighbor);
+    link.credits += credits;
+    if (link.stalledSince == -1) return false;
+    link.stalledNanos += System.nanoTime() - link.stalledSince;
+    link.stalledSince = -1;
+    return true;
+  }
+
+  /**
+   * An Application message from the neighbor was handled, returning the credits
+   * to grant back now, or 0 while they are batched
+   */
+  public synchronized int handled(final int neighbor) {
+    final Link link = links.get(neighbor);
+    if (++link.owed < batch) return 0;
+    final int credits = link.owed;
+    link.owed = 0;
+    return credits;
+  }
+
+  /**
+   * Times a sender held a message for lack of credits, over every channel
+   */
+  public synchronized int getStalls() {
+    return links.values().stream().mapToInt(link -> link.stalls).sum();
+  }
+
+  /**
+   * Nanoseconds senders spent holding a message for lack of credits, over every channel
+   */
+  public synchronized long getStalledNanos() {
+    return links.values().stream().mapToLong(link -> link.stalledNanos).sum();
+  }
+
+  /**
+   * Credits, stalls, stall time and peak queue depth of every outgoing channel
+   */
+  @Override
+  public synchronized String toString() {
+    final StringBuilder builder = new StringBuilder();
+    for (final Map.Entry<Integer, Link> entry : links.entrySet()) {
+      final Link link = entry.getValue();
+      if (builder.length() > 0) builder.append(", ");
+      builder.append("to ").append(entry.getKey())
+        .append(" ").append(link.credits).append(" credits")
+        .append(" ").append(link.stalls).append(" stalls")
+        .append(" for ").append(link.stalledNanos / 1_000).append(" us")
+        .append(" peak depth ").append(link.peakDepth);
+    }
+    return builder.toString();
+  }
+}
@@ -2,13 +2,96 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Set;
+import java.util.TreeSet;
 
 
 public class GlobalState {
+    private final int snapshot;
+    private final long started = System.nanoTime();
     private final List<LocalState> localStates = new ArrayList<LocalState>();
+    // the same states by node id, to rebuild later states from delta reports
+    private final Map<Integer, LocalState> byNode = new HashMap<Integer, LocalState>();
     private final List<ChannelState> channelStates = new ArrayList<ChannelState>();
+    private final List<ChannelSummary> channelSummaries = new ArrayList<ChannelSummary>();
+    // initiators whose waves merged into this snapshot
+    private final Set<Integer> waves = new TreeSet<Integer>();
+    // folded from aggregated reports, null when reports carry no summary
+    private SnapshotSummary summary;
+    // delta reports waiting for their base snapshot to be output
+    private final List<StateDelta> deferredDeltas = new ArrayList<StateDelta>();
 
-    public GlobalState() { }
+    public GlobalState(final int snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Add a report from one node or one subtree, its deltas have to be
+     * resolved against earlier snapshots and added on their own
+     */
+    public void add(final Message.Snapshot report) {
+        for (final LocalState localState : report.getLocalStates()) {
+            addLocalState(localState);
+        }
+        channelStates.addAll(report.getChannelStates());
+        channelSummaries.addAll(report.getChannelSummaries());
+        waves.addAll(report.getWaves());
+        if (report.getSummary() != null) {
+            if (summary == null) {
+                summary = new SnapshotSummary(report.getSummary().size());
+            }
+            summary.merge(report.getSummary());
+        }
+    }
+
+    public void addLocalState(final LocalState localState) {
+        localStates.add(localState);
+        byNode.put(localState.getID(), localState);
+    }
+
+    /**
+     * Hold a delta until its base snapshot is output
+     */
+    public void defer(final StateDelta delta) {
+        deferredDeltas.add(delta);
+    }
+
+    /**
+     * Whether a delta is waiting for the given snapshot
+     */
+    public boolean waitsFor(final int base) {
+        for (final StateDelta delta : deferredDeltas) {
+            if (delta.getBase() == base) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Take out the deltas waiting for the given snapshot
+     */
+    public List<StateDelta> takeDeferred(final int base) {
+        final List<StateDelta> taken = new ArrayList<StateDelta>();
+        deferredDeltas.removeIf(delta -> delta.getBase() == base && taken.add(delta));
+        return taken;
+    }
+
+    /**
+     * State recorded by a node, null if it has not been reported yet
+     */
+    public LocalState getLocalState(final int node) {
+        return byNode.get(node);
+    }
+
+    public int getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * System.nanoTime() when the snapshot was initiated or first reported here
+     */
+    public long getStarted() {
+        return started;
+    }
 
     public List<LocalState> getLocalStates() {
         return localStates;
@@ -18,8 +101,51 @@ public class GlobalState {
         return channelStates;
     }
 
-    public void reset() {
-        localStates.clear();
-        channelStates.clear();
+    /**
+     * Channels recorded as counts, only the non-empty ones are reported
+     */
+    public List<ChannelSummary> getChannelSummaries() {
+        return channelSummaries;
+    }
+
+    /**
+     * Messages recorded in transit over every channel
+     */
+    public int getInTransit() {
+        if (summary != null) return summary.getInTransit();
+        int inTransit = channelStates.size();
+        for (final ChannelSummary channelSummary : channelSummaries) {
+            inTransit += channelSummary.getCount();
+        }
+        return inTransit;
+    }
+
+    /**
+     * Number of nodes recorded as ACTIVE
+     */
+    public int getActive() {
+        int active = 0;
+        for (final LocalState localState : localStates) {
+            if (localState.getState().equals(Node.State.ACTIVE)) active++;
+        }
+        return active;
+    }
+
+    public Set<Integer> getWaves() {
+        return waves;
+    }
+
+    public SnapshotSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Remove the spills behind the channel summaries, once the snapshot is
+     * output or given up. The counts stay.
+     */
+    public void release() {
+        for (final ChannelSummary channelSummary : channelSummaries) {
+            channelSummary.release();
+        }
     }
 }
@@ -0,0 +1,159 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+
+/**
+ * Markerless Lai-Yang bookkeeping for a single node.
+ *
+ * Every Application message carries the epoch of its sender, which is the number
+ * of snapshots the sender had recorded when sending it. A message from a later
+ * epoch makes the receiver record the snapshots it is missing before the message
+ * is processed, so no message sent after a cut is received before it.
+ *
+ * Instead of recording in-transit messages, each channel keeps a count of messages
+ * sent and received. Counts are cumulative, so what a channel held at a cut is the
+ * sender's count at its cut minus the receiver's count at its cut, and summed over
+ * every channel that is just the sum of (sent - received) over every node.
+ */
+public class LaiYangRecorder {
+  private final ReentrantReadWriteLock cut = new ReentrantReadWriteLock();
+  // indexed by node id, messages sent to and received from each neighbor
+  private final AtomicIntegerArray sent;
+  private final AtomicIntegerArray received;
+  private volatile int epoch = 0;
+  // convergecast: recorded cuts still waiting on reports from tree children
+  private final Map<Integer, Cut> pending = new ConcurrentHashMap<>();
+
+  public LaiYangRecorder(final int nodes) {
+    this.sent = new AtomicIntegerArray(nodes);
+    this.received = new AtomicIntegerArray(nodes);
+  }
+
+  /**
+   * Lock held shared around every application send and receive, so none of
+   * them can interleave with the recording of the local state
+   */
+  public Lock eventLock() {
+    return cut.readLock();
+  }
+
+  /**
+   * Epoch to stamp on the next Application message, which is also the id
+   * of the next snapshot this node will record
+   */
+  public int getEpoch() {
+    return epoch;
+  }
+
+  /**
+   * Count a sent message, with the event lock held
+   */
+  public void sent(final int target) {
+    sent.incrementAndGet(target);
+  }
+
+  /**
+   * Count a received message, with the event lock held
+   */
+  public void received(final int source) {
+    received.incrementAndGet(source);
+  }
+
+  /**
+   * Record every snapshot up to and including the given one that was not recorded
+   * yet, all sharing the same local state. Returns the cuts taken, in order.
+   */
+  public List<Cut> record(final int snapshot, final Supplier<LocalState> state) {
+    final List<Cut> cuts = new ArrayList<>();
+    if (snapshot < epoch) return cuts;
+    cut.writeLock().lock();
+    try {
+      if (snapshot < epoch) return cuts;
+      final LocalState localState = state.get();
+      int inTransit = 0;
+      for (int i = 0; i < sent.length(); i++) {
+        inTransit += sent.get(i) - received.get(i);
+      }
+      for (int s = epoch; s <= snapshot; s++) {
+        cuts.add(new Cut(s, localState, inTransit));
+      }
+      epoch = snapshot + 1;
+      return cuts;
+    } finally {
+      cut.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Cut of a snapshot waiting on its tree children, created by whichever
+   * of the local recording and the first child report comes first
+   */
+  public Cut pending(final int snapshot) {
+    return pending.computeIfAbsent(snapshot, s -> new Cut(s, null, 0));
+  }
+
+  public void remove(final int snapshot) {
+    pending.remove(snapshot);
+  }
+
+  /**
+   * Local state of one snapshot, with this node's share of the messages
+   * in transit, and the reports of its tree children under convergecast
+   */
+  public static class Cut {
+    private final int snapshot;
+    private volatile LocalState localState;
+    private volatile int inTransit;
+    private final List<Message.Snapshot> reports = new ArrayList<>();
+    private boolean collected = false;
+
+    private Cut(final int snapshot, final LocalState localState, final int inTransit) {
+      this.snapshot = snapshot;
+      this.localState = localState;
+      this.inTransit = inTransit;
+    }
+
+    public int getSnapshot() {
+      return snapshot;
+    }
+
+    public LocalState getLocalState() {
+      return localState;
+    }
+
+    /**
+     * Summary of this node alone, counting its share of the messages in transit
+     */
+    public SnapshotSummary summarize() {
+      return SnapshotSummary.of(localState, inTransit);
+    }
+
+    /**
+     * Fill in the recorded state of a cut created by an early child report
+     */
+    public synchronized void recorded(final Cut recorded) {
+      localState = recorded.localState;
+      inTransit = recorded.inTransit;
+    }
+
+    public synchronized void addReport(final Message.Snapshot report) {
+      reports.add(report);
+    }
+
+    /**
+     * Hand out the children's reports exactly once, as soon as the local
+     * state is recorded and every child has reported, or null before that
+     */
+    public synchronized List<Message.Snapshot> collectReports(final int children) {
+      if (collected || localState == null || reports.size() < children) return null;
+      collected = true;
+      return new ArrayList<>(reports);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+
+/**
+ * In-memory network between the nodes of a config running in the same JVM.
+ *
+ * Every node has a single inbox, a lock-free FIFO queue that all of its incoming
+ * channels append to, drained by one reader. The queue keeps the order of every
+ * sender's messages, so each channel stays FIFO. Senders append directly to the
+ * inbox of the neighbor, so there is no writer per channel, and the reader only
+ * parks once the inbox is empty.
+ *
+ * Messages are handed over by reference, which is fine since no message is
+ * modified once it is sent.
+ */
+public class MemoryNetwork {
+  private final Config config;
+  private final Inbox[] inboxes;
+  private final LongAdder messages = new LongAdder();
+  private final LongAdder applicationMessages = new LongAdder();
+
+  public MemoryNetwork(final Config config) {
+    this.config = config;
+    this.inboxes = new Inbox[config.nodes];
+    for (int i = 0; i < config.nodes; i++) {
+      inboxes[i] = new Inbox(config.nodes);
+    }
+  }
+
+  /**
+   * Transport of a node, messages sent to it before it connects wait in its inbox
+   */
+  public Transport transport(final int id) {
+    return new Transport() {
+      @Override
+      public void connect(final NodeRuntime runtime, final Consumer<Channel> connected, final Consumer<Message> received) {
+        runtime.read(() -> inboxes[id].read(received));
+        for (int neighborIndex : config.topology.neighbors(id)) {
+          connected.accept(new Link(neighborIndex, inboxes[neighborIndex], id));
+        }
+      }
+
+      @Override
+      public void close() {
+        inboxes[id].close();
+      }
+    };
+  }
+
+  /**
+   * Messages sent over every channel so far
+   */
+  public long getMessages() {
+    return messages.sum();
+  }
+
+  public long getApplicationMessages() {
+    return applicationMessages.sum();
+  }
+
+  private static class Inbox {
+    private final ConcurrentLinkedQueue<Delivery> queue = new ConcurrentLinkedQueue<>();
+    // indexed by sender, messages queued and not received yet
+    private final AtomicIntegerArray pending;
+    private volatile Thread reader;
+    // set by the reader right before it parks, so senders only unpark when needed
+    private volatile boolean waiting = false;
+    private volatile boolean closed = false;
+
+    Inbox(final int nodes) {
+      this.pending = new AtomicIntegerArray(nodes);
+    }
+
+    void add(final int sender, final Message message) {
+      pending.incrementAndGet(sender);
+      queue.offer(new Delivery(sender, message));
+      // the reader announces that it parks before checking the queue one last time,
+      // so either it sees this message or we see it waiting
+      if (waiting) LockSupport.unpark(reader);
+    }
+
+    /**
+     * Reader loop, hands every message to the node until the inbox is closed
+     */
+    void read(final Consumer<Message> received) {
+      reader = Thread.currentThread();
+      while (!closed && !Thread.currentThread().isInterrupted()) {
+        Delivery delivery = queue.poll();
+        if (delivery == null) {
+          waiting = true;
+          delivery = queue.poll();
+          if (delivery == null) LockSupport.park(this);
+          waiting = false;
+          if (delivery == null) continue;
+        }
+        // forwarded reports keep their original source, so the sender travels along
+        pending.decrementAndGet(delivery.sender);
+        received.accept(delivery.message);
+      }
+    }
+
+    void close() {
+      closed = true;
+      final Thread current = reader;
+      if (current != null) LockSupport.unpark(current);
+    }
+  }
+
+  private static class Delivery {
+    private final int sender;
+    private final Message message;
+
+    Delivery(final int sender, final Message message) {
+      this.sender = sender;
+      this.message = message;
+    }
+  }
+
+  /**
+   * Outgoing half of an in-memory channel, appending to the inbox of the neighbor
+   */
+  private class Link implements Channel {
+    private final int neighbor;
+    private final Inbox inbox;
+    private final int source;
+    private volatile boolean closed = false;
+
+    Link(final int neighbor, final Inbox inbox, final int source) {
+      this.neighbor = neighbor;
+      this.inbox = inbox;
+      this.source = source;
+    }
+
+    @Override
+    public int getNeighbor() {
+      return neighbor;
+    }
+
+    @Override
+    public void send(final Message message) {
+      // like a closed socket, nothing gets through after the farewell
+      if (closed) return;
+      messages.increment();
+      if (message instanceof Message.Application) applicationMessages.increment();
+      inbox.add(source, message);
+    }
+
+    @Override
+    public int depth() {
+      return inbox.pending.get(source);
+    }
+
+    @Override
+    public void close(final Message farewell) {
+      send(farewell);
+      closed = true;
+    }
+  }
+}
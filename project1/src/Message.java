@@ -1,5 +1,6 @@
 import java.io.Serializable;
 import java.util.List;
+import java.util.Set;
 
 
 public abstract class Message implements Serializable {
@@ -15,40 +16,255 @@ public abstract class Message implements Serializable {
 
   static class Application extends Message {
     private final int[] vectorClock;
+    // differential clocks only carry the entries changed since the last send on the channel
+    private final int[] changedIndices;
+    private final int[] changedValues;
+    // Lai-Yang: snapshots recorded by the sender before sending, -1 otherwise
+    private int epoch = -1;
     
     public Application(final int source, final int[] vectorClock) {
       super(source);
       this.vectorClock = vectorClock.clone();
+      this.changedIndices = null;
+      this.changedValues = null;
+    }
+
+    public Application(final int source, final int[] changedIndices, final int[] changedValues) {
+      super(source);
+      this.vectorClock = null;
+      this.changedIndices = changedIndices;
+      this.changedValues = changedValues;
+    }
+
+    /**
+     * Piggyback the sender's epoch, set before the message is queued
+     */
+    public void setEpoch(final int epoch) {
+      this.epoch = epoch;
+    }
+
+    public int getEpoch() {
+      return epoch;
+    }
+
+    public boolean isDifferential() {
+      return vectorClock == null;
     }
 
     public int[] getVectorClock() {
       return vectorClock;
     }
+
+    public int[] getChangedIndices() {
+      return changedIndices;
+    }
+
+    public int[] getChangedValues() {
+      return changedValues;
+    }
   }
 
   static class Marker extends Message {
-    public Marker(final int source) {
+    private final int snapshot;
+    // node whose wave this marker belongs to
+    private final int initiator;
+    // whether the receiver is the sender's parent in the snapshot tree
+    private final boolean toParent;
+    // latest snapshot the sender knows the collector has completed
+    private final int acked;
+
+    public Marker(final int source, final int snapshot, final int initiator, final boolean toParent, final int acked) {
       super(source);
+      this.snapshot = snapshot;
+      this.initiator = initiator;
+      this.toParent = toParent;
+      this.acked = acked;
+    }
+
+    public int getSnapshot() {
+      return snapshot;
+    }
+
+    public int getInitiator() {
+      return initiator;
+    }
+
+    public boolean isToParent() {
+      return toParent;
+    }
+
+    public int getAcked() {
+      return acked;
     }
   }
 
  static class Snapshot extends Message {
-    private final LocalState localState;
+    private final int snapshot;
+    private final List<LocalState> localStates;
+    // states of nodes that only sent what changed since an acknowledged report
+    private final List<StateDelta> deltas;
     private final List<ChannelState> channelStates;
+    // channels recorded as counts instead of channelStates
+    private final List<ChannelSummary> channelSummaries;
+    // only set for reports aggregated up the tree
+    private final SnapshotSummary summary;
+    // initiators whose waves reached the reported nodes
+    private final Set<Integer> waves;
+    // set once the report has left its wave and travels up the BFS tree to the collector
+    private final boolean toCollector;
 
-    public Snapshot(final int source, final LocalState localState, final List<ChannelState> channelStates) {
+    public Snapshot(
+      final int source,
+      final int snapshot,
+      final List<LocalState> localStates,
+      final List<StateDelta> deltas,
+      final List<ChannelState> channelStates,
+      final List<ChannelSummary> channelSummaries,
+      final SnapshotSummary summary,
+      final Set<Integer> waves
+    ) {
+      this(source, snapshot, localStates, deltas, channelStates, channelSummaries, summary, waves, false);
+    }
+
+    private Snapshot(
+      final int source,
+      final int snapshot,
+      final List<LocalState> localStates,
+      final List<StateDelta> deltas,
+      final List<ChannelState> channelStates,
+      final List<ChannelSummary> channelSummaries,
+      final SnapshotSummary summary,
+      final Set<Integer> waves,
+      final boolean toCollector
+    ) {
       super(source);
-      this.localState = localState;
+      this.snapshot = snapshot;
+      this.localStates = localStates;
+      this.deltas = deltas;
       this.channelStates = channelStates;
+      this.channelSummaries = channelSummaries;
+      this.summary = summary;
+      this.waves = waves;
+      this.toCollector = toCollector;
+    }
+
+    /**
+     * The same report, flagged to follow the BFS tree to the collector
+     */
+    public Snapshot toCollector() {
+      return new Snapshot(getSource(), snapshot, localStates, deltas, channelStates, channelSummaries, summary, waves, true);
+    }
+
+    public int getSnapshot() {
+      return snapshot;
+    }
+
+    public List<LocalState> getLocalStates() {
+      return localStates;
+    }
+
+    public List<StateDelta> getDeltas() {
+      return deltas;
     }
 
-    public LocalState getLocalState() {
-      return localState;
+    /**
+     * Number of nodes reported, in full or as deltas
+     */
+    public int size() {
+      return localStates.size() + deltas.size();
     }
 
     public List<ChannelState> getChannelStates() {
       return channelStates;
     }
+
+    public List<ChannelSummary> getChannelSummaries() {
+      return channelSummaries;
+    }
+
+    public SnapshotSummary getSummary() {
+      return summary;
+    }
+
+    public Set<Integer> getWaves() {
+      return waves;
+    }
+
+    public boolean isToCollector() {
+      return toCollector;
+    }
+  }
+
+  /**
+   * Lai-Yang: asks the receiver to record its state for a snapshot,
+   * sent along the edges of the BFS tree only
+   */
+  static class Cut extends Message {
+    private final int snapshot;
+    // latest snapshot the sender knows the collector has completed
+    private final int acked;
+
+    public Cut(final int source, final int snapshot, final int acked) {
+      super(source);
+      this.snapshot = snapshot;
+      this.acked = acked;
+    }
+
+    public int getSnapshot() {
+      return snapshot;
+    }
+
+    public int getAcked() {
+      return acked;
+    }
+  }
+
+  /**
+   * Dijkstra-Scholten: returns one unit of deficit for an Application message
+   */
+  static class Signal extends Message {
+    public Signal(final int source) {
+      super(source);
+    }
+  }
+
+  /**
+   * Flow control: hands Application message credits back to the sender
+   */
+  static class Credit extends Message {
+    private final int credits;
+
+    public Credit(final int source, final int credits) {
+      super(source);
+      this.credits = credits;
+    }
+
+    public int getCredits() {
+      return credits;
+    }
+  }
+
+  static class Hello extends Message {
+    public Hello(final int source) {
+      super(source);
+    }
+  }
+
+  /**
+   * Readiness on the BFS tree: a connected subtree reported to the parent with
+   * its root as origin, or the go of START_NODE passed down to the children
+   */
+  static class Ready extends Message {
+    private final int origin;
+
+    public Ready(final int source, final int origin) {
+      super(source);
+      this.origin = origin;
+    }
+
+    public int getOrigin() {
+      return origin;
+    }
   }
 
   static class Halt extends Message {
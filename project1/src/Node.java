@@ -1,18 +1,17 @@
-import java.net.Socket;
-import java.net.ServerSocket;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LongSummaryStatistics;
 import java.util.Map;
-import java.util.Random;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.PrintWriter;
-import java.io.FileOutputStream;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 import java.io.File;
-import java.io.EOFException;
 
 
 public class Node {
@@ -22,214 +21,469 @@ public class Node {
   private final int id;
   private final String hostName;
   private final int listenPort;
-  private final List<Integer> neighbors;
-
-  private Map<Integer, Socket> sockets = new HashMap<>();
-  private Map<Integer, ObjectOutputStream> outputStreams = new HashMap<>();
+  private final int[] neighbors;
 
-  private int queuedMessages = 0;
-  private int messageLimit = 0;
-  private State state = State.PASSIVE;
-  private Color markerMode = Color.Blue;
-  private Set<Integer> markerLog = new HashSet<>();
+  // delta reports only refer to snapshots at most this many ids older than their own
+  private static final int DELTA_WINDOW = 8;
 
+  private Map<Integer, Channel> channels = new ConcurrentHashMap<>();
+  private Transport transport;
+  private NodeRuntime runtime;
+  private Workload workload;
 
-  private List<ChannelState> channelStates = new ArrayList<>();
-  private LocalState localState;
-  private GlobalState globalState;
+  private volatile int queuedMessages = 0;
+  private volatile int messageLimit = 0;
+  // runtime time the next application message of the activation is due at
+  private volatile long nextSend = 0;
+  private volatile State state = State.PASSIVE;
+  // wall clock time of the last transition to PASSIVE, to compare detection latencies
+  private volatile long lastPassive = 0;
+  private final AtomicBoolean halted = new AtomicBoolean(false);
 
-  private int[] vectorClock;
-  private static Config config;
+  // readiness convergecast on the BFS tree, guarded by allReady
+  private final CountDownLatch allReady = new CountDownLatch(1);
+  private int readyChildren = 0;
+  private boolean connected = false;
 
-  // resolves to the parent of the node for snapshot messages
-  private int forwarder = -1;
+  private SnapshotRegistry snapshots;
+  // BFS tree to START_NODE, which collects every snapshot
+  private SpanningTree collectorTree;
+  // Lai-Yang engine, null when snapshots use Chandy-Lamport markers
+  private LaiYangRecorder laiYang;
+  // BFS tree edges at this node, which carry the Lai-Yang cut requests
+  private final List<Integer> treeNeighbors = new ArrayList<>();
+  private int treeChildren;
+  // START_NODE only: snapshots still being collected by id, guarded by collections
+  private final Map<Integer, GlobalState> collections = new HashMap<>();
+  // START_NODE only: binary history of every snapshot output
+  private SnapshotStore store;
+  // START_NODE only: completed snapshots that delta reports are applied to, guarded by collections
+  private final Map<Integer, GlobalState> completed = new HashMap<>();
+  // ids are handed out without gaps, so every snapshot below this one was output or aborted
+  private int lowWater = 0;
+  private final Set<Integer> completedAbove = new HashSet<>();
+  // latest snapshot known to be completed by START_NODE, piggybacked on markers and cuts
+  private final AtomicInteger ackedSnapshot = new AtomicInteger(-1);
+  // our own reported states by snapshot, that later reports are encoded against
+  private final Map<Integer, LocalState> reportedStates = new ConcurrentHashMap<>();
+  // initiators only, guarded by collections
+  private boolean timerArmed = false;
+  private SnapshotScheduler scheduler;
+  // START_NODE only: microseconds from initiating to outputting each snapshot, guarded by collections
+  private final LongSummaryStatistics snapshotLatency = new LongSummaryStatistics();
+  // Dijkstra-Scholten detector, null when termination is found by snapshots
+  private TerminationDetector termination;
+  // credits of the Application messages on every channel, null without flow control
+  private FlowControl flowControl;
+  // neighbor the sender chain holds its next message for until it grants credits, -1 if none
+  private int stalledTarget = -1;
 
-  private static String configPath = "";
+  private VectorClock vectorClock;
+  private Config config;
+  private File configFile;
 
   public Node(
     final int id,
     final String hostName,
-    final int listenPort
+    final int listenPort,
+    final int[] neighbors
   ) {
     this.id = id;
     this.hostName = hostName;
     this.listenPort = listenPort;
-    this.neighbors = new ArrayList<>();
+    this.neighbors = neighbors;
   }
 
   public static void main(String[] args) throws Exception {
     // find out which node this instance is labelled
     final int id = Integer.parseInt(args[1]);
     // read the configuration
-    Node.configPath = args[0];
-    Node.config = Config.fromFile(new File(configPath));
+    final File configFile = new File(args[0]);
+    final Config config = Config.fromFile(configFile);
     // pull the current node's config based on id label
-    final Node node = Node.config.nodeConfigs[id];
+    final Node node = config.node(id);
     // run the node with knowledge from the configuration file
-    node.run();
+    node.run(config, configFile, new SocketTransport(id, config));
+    // keep the process alive until the node halts
+    node.awaitHalt();
   }
 
-  private void run() throws Exception {
-    vectorClock = new int[config.nodes];
-    messageLimit = config.maxNumber;
+  /**
+   * Connect to the neighbors over a transport and start the protocol.
+   * Initiators only return once every node is connected.
+   */
+  void run(final Config config, final File configFile, final Transport transport) throws Exception {
+    run(
+      config,
+      configFile,
+      config.trace
+        ? new TraceRecorder(transport, new File(configFile.getAbsoluteFile().getParentFile(), outputName(configFile) + "-" + id + ".trace"), id, config.nodes)
+        : transport,
+      new NodeRuntime(id),
+      Workload.fromConfig(config, neighbors)
+    );
+  }
 
-    // spawn a thread to accept connections to this node
-    new Thread(() -> {
-      try {
-        // open a listening socket for the server
-        final ServerSocket welcomeSocket = new ServerSocket(listenPort);
-        while (true) {
-          // accept incoming socket connection requests
-          final Socket connectionSocket = welcomeSocket.accept();
-          final ObjectInputStream inputStream = new ObjectInputStream(connectionSocket.getInputStream());
-          // spawn a new handler for the accepted
-          new Thread(() -> {
-            while (true) {
-              try {
-                final Message message = (Message) inputStream.readObject();
-                if (message instanceof Message.Application) {
-                  log("received an application message.");
-                  handleApplicationMessage((Message.Application) message);
-                  tryActivate();
-                } else if (message instanceof Message.Marker) {
-                  log("received a marker message.");
-                  handleMarkerMessage((Message.Marker) message);
-                } else if (message instanceof Message.Snapshot) {
-                  log("received a snapshot message.");
-                  handleSnapshotMessage((Message.Snapshot) message);
-                } else if (message instanceof Message.Halt) {
-                  log("received a halt message.");
-                  handleHaltMessage();
-                }
-              } catch (EOFException e) {
-                break; // this is fine to ignore
-              } catch (Exception e) {
-                e.printStackTrace();
-              }
-            }
-          }).start();
+  /**
+   * Same as above, on a given runtime and sending the messages of a given workload.
+   * Nothing is traced, as replays run through here.
+   */
+  void run(
+    final Config config,
+    final File configFile,
+    final Transport transport,
+    final NodeRuntime runtime,
+    final Workload workload
+  ) throws Exception {
+    this.config = config;
+    this.configFile = configFile;
+    this.transport = transport;
+    this.runtime = runtime;
+    this.workload = workload;
+    vectorClock = config.differentialClocks
+      ? new DifferentialClock(config.nodes, id)
+      : new VectorClock(config.nodes);
+    snapshots = new SnapshotRegistry(
+      config.nodes,
+      neighbors,
+      config.channelRecording.equals("count"),
+      config.channelSamples,
+      config.spillThreshold,
+      new File(config.spillDirectory)
+    );
+    messageLimit = workload.messageLimit();
+    scheduler = new SnapshotScheduler(config);
+    collectorTree = SpanningTree.bfs(config, Node.START_NODE);
+    treeNeighbors.addAll(collectorTree.getChildren(id));
+    treeChildren = treeNeighbors.size();
+    if (collectorTree.getParent(id) != -1) {
+      treeNeighbors.add(collectorTree.getParent(id));
+    }
+    if (config.snapshotEngine.equals("laiYang")) {
+      laiYang = new LaiYangRecorder(config.nodes);
+    }
+    if (config.terminationDetection.equals("dijkstraScholten")) {
+      // START_NODE is the only node active at startup, which makes it the root
+      termination = new TerminationDetector(id, id == Node.START_NODE);
+    }
+    if (config.channelCredits > 0) {
+      flowControl = new FlowControl(config.channelCredits, neighbors);
+    }
+    if (config.snapshotTree.equals("bfs")) {
+      log("snapshot reports go to " + collectorTree.getParent(id) + " in a BFS tree of height " + collectorTree.getHeight());
+    }
+
+    if (id == Node.START_NODE) {
+      store = SnapshotStore.create(configFile.getAbsoluteFile().getParentFile(), outputName(configFile), config.nodes);
+    }
+
+    transport.connect(runtime, this::register, this::receive);
+
+    if (id == Node.START_NODE || config.initiators.contains(id)) {
+      // hold the protocol until every node has its full neighbor set
+      log("waiting for every node to connect to its neighbors...");
+      allReady.await();
+      log("every node is ready");
+      synchronized (collections) {
+        armSnapshotTimer();
+      }
+      if (id == Node.START_NODE) {
+        if (termination == null) {
+          tryActivate();
+        } else {
+          synchronized (termination) {
+            tryActivate();
+            // a root without messages to send terminates right away
+            tryDetach();
+          }
         }
-      } catch (Exception e) {
-        err("failed to start listening on " + listenPort);
-        e.printStackTrace();
       }
-    }).start();
+    }
+  }
 
-    log("sleeping for [3] seconds to allow peer server sockets to setup...");
-    Thread.sleep(3000); // 3 seconds
+  /**
+   * Make a connected channel usable, announcing readiness once every neighbor is connected
+   */
+  private void register(final Channel channel) {
+    log("connected to " + channel.getNeighbor());
+    channels.put(channel.getNeighbor(), channel);
+    if (channels.size() == neighbors.length) {
+      handleConnected();
+    }
+  }
 
-    // create a socket connection to each node in the neighbor set
-    for (int neighborIndex : neighbors) {
-      try {
-        final Socket socket = new Socket(
-          config.nodeConfigs[neighborIndex].hostName,
-          config.nodeConfigs[neighborIndex].listenPort
-        );
+  /**
+   * Handle a message from one of the incoming channels
+   */
+  private void receive(final Message message) {
+    try {
+      if (message instanceof Message.Application) {
+        log("received an application message.");
+        handleApplicationMessage((Message.Application) message);
+        if (flowControl != null) grantCredits(message.getSource());
+      } else if (message instanceof Message.Credit) {
+        handleCreditMessage((Message.Credit) message);
+      } else if (message instanceof Message.Marker) {
+        log("received a marker message.");
+        handleMarkerMessage((Message.Marker) message);
+      } else if (message instanceof Message.Snapshot) {
+        log("received a snapshot message.");
+        handleSnapshotMessage((Message.Snapshot) message);
+      } else if (message instanceof Message.Ready) {
+        handleReadyMessage((Message.Ready) message);
+      } else if (message instanceof Message.Cut) {
+        log("received a cut message.");
+        handleCutMessage((Message.Cut) message);
+      } else if (message instanceof Message.Signal) {
+        log("received a signal message.");
+        handleSignalMessage();
+      } else if (message instanceof Message.Halt) {
+        log("received a halt message.");
+        handleHaltMessage();
+      }
+    } catch (Exception e) {
+      if (halted.get()) return; // channels closed while halting
+      e.printStackTrace();
+    }
+  }
 
-        log("connected to " + neighborIndex);
+  /**
+   * This node has its full neighbor set, its subtree may be ready now
+   */
+  private void handleConnected() {
+    synchronized (allReady) {
+      // the last two channels can register at the same time
+      if (connected) return;
+      connected = true;
+      checkSubtreeReady();
+    }
+  }
 
-        sockets.put(neighborIndex, socket);
-        outputStreams.put(neighborIndex, new ObjectOutputStream(socket.getOutputStream()));
-      } catch (Exception e) {
-        err("failed to connect to node " + neighborIndex +
-          " at " + config.nodeConfigs[neighborIndex].hostName +
-          " on port " + config.nodeConfigs[neighborIndex].listenPort);
-        e.printStackTrace();
+  /**
+   * Readiness goes up the BFS tree once a whole subtree is connected, and START_NODE
+   * sends one go back down once all of it is: 2(n - 1) messages instead of a flood
+   * of every node's announcement over every edge
+   */
+  private void handleReadyMessage(final Message.Ready readyMessage) {
+    synchronized (allReady) {
+      if (readyMessage.getOrigin() == Node.START_NODE) {
+        sendToChildren(new Message.Ready(id, Node.START_NODE));
+        allReady.countDown();
+      } else {
+        readyChildren++;
+        checkSubtreeReady();
       }
     }
-    
-    log("sleeping for [3] seconds to allow peer client sockets to setup...");
-    Thread.sleep(3000); // 3 seconds
-    
+  }
+
+  /**
+   * Report the subtree ready to the parent once this node and every child are,
+   * or send the go at the root. Must be called holding allReady.
+   */
+  private void checkSubtreeReady() {
+    if (!connected || readyChildren < treeChildren) return;
     if (id == Node.START_NODE) {
-      globalState = new GlobalState();
-      runSnapshotTimer();
-      tryActivate();
+      sendToChildren(new Message.Ready(id, Node.START_NODE));
+      allReady.countDown();
+    } else {
+      sendMessage(collectorTree.getParent(id), new Message.Ready(id, id));
+    }
+  }
+
+  private void sendToChildren(final Message message) {
+    // the children come first among the tree neighbors
+    for (final int child : treeNeighbors.subList(0, treeChildren)) {
+      sendMessage(child, message);
     }
   }
 
+  /**
+   * Under Dijkstra-Scholten the caller holds the monitor of the detector
+   */
   private synchronized void tryActivate() {
     // change the state of the node from PASSIVE to ACTIVE
     // if there are still messages that it can send
     if (getState().equals(State.PASSIVE) && messageLimit > 0) {
+      // generate the number of messages for the activation of the node
+      final int messages = workload.activation();
+      if (messages == 0) {
+        // the node stays PASSIVE, and may leave the diffusing tree right away
+        if (termination != null) tryDetach();
+        return;
+      }
       log("becoming active");
       setState(State.ACTIVE);
+      queuedMessages += messages;
+      // sends are paced on the runtime scheduler instead of a dedicated thread
+      nextSend = runtime.nanoTime();
+      runtime.execute(this::sendApplicationMessage);
+    }
+  }
 
-      new Thread(() -> {
-        // generate the normal number of messages for the activation of the node.
-        queuedMessages += generateMessages(config.maxPerActive, config.minPerActive);
-
-        // based on the gateway in the synchronized block above, there should not be
-        // any other thread executing this loop, so there is no synchronization
-        // required.
-        while (queuedMessages > 0 && messageLimit > 0) {
-          final int node = randomNeighbor();
-          try {
-            // dont let anyone change the vector clock being sent here
-            synchronized(vectorClock) {
-              log("writing an application message to node " + node);
-              // send Application message to destination node socket
-              vectorClock[id]++;
-              sendMessage(node, new Message.Application(id, vectorClock));
-              // decriment the message counters
-              queuedMessages--;
-              messageLimit--;
-            }
-            // delay the next trasmission
-            Thread.sleep(config.minSendDelay);
-          } catch (Exception e) {
-            err("failed to send message to node " + node);
-            e.printStackTrace();
-          }
-        }
+  /**
+   * Send the messages of the current activation that are due and schedule the
+   * next one, returning to PASSIVE once the activation is used up.
+   *
+   * Sends are paced against a deadline that moves by the workload's delay with
+   * every message, so messages the scheduler wakes up late for go out together
+   * and the rate holds for delays shorter than a scheduler wakeup.
+   *
+   * Note:
+   *  based on the gateway in tryActivate, there should only ever be
+   *  one chain of these tasks on the scheduler at a time.
+   */
+  private void sendApplicationMessage() {
+    while (true) {
+      // the workload may also end an activation early
+      final int node = stalledTarget != -1
+        ? stalledTarget
+        : queuedMessages > 0 && messageLimit > 0 ? workload.nextTarget() : -1;
+      if (node == -1) {
         // return the node to the PASSIVE state to allow entry into tryActivate again
         log("becoming passive");
-        synchronized(state) {
+        queuedMessages = 0;
+        lastPassive = System.currentTimeMillis();
+        if (termination == null) {
           setState(State.PASSIVE);
+        } else {
+          synchronized (termination) {
+            setState(State.PASSIVE);
+            tryDetach();
+          }
         }
-      }).start();
+        return;
+      }
+      if (flowControl != null && !flowControl.acquire(node)) {
+        // the node stays ACTIVE holding the message, a grant from the neighbor resumes the chain
+        log("out of credits for node " + node);
+        stalledTarget = node;
+        return;
+      }
+      stalledTarget = -1;
+      try {
+        log("writing an application message to node " + node);
+        // send Application message to destination node socket
+        sendApplicationMessage(node);
+        // decriment the message counters
+        queuedMessages--;
+        messageLimit--;
+      } catch (Exception e) {
+        err("failed to send message to node " + node);
+        e.printStackTrace();
+      }
+      // delay the next trasmission, unless it is already due
+      nextSend += workload.nextDelay();
+      final long wait = nextSend - runtime.nanoTime();
+      if (wait > 0) {
+        runtime.scheduleNanos(this::sendApplicationMessage, wait);
+        return;
+      }
     }
   }
 
   /**
-   * Handle recieving and/or forwarding halt messages indicating completion
+   * Stamp and send a single application message to a neighbor.
+   *
+   * Note:
+   *  the channel stays locked from before the stamp until the message is queued,
+   *  so a marker owed on this channel can neither overtake a message stamped
+   *  before the cut nor trail one stamped after it.
    */
-  private void handleHaltMessage() {
-    // send the halt message to every neighbor
-    for (int neighborIndex : neighbors) {
+  private void sendApplicationMessage(final int targetNode) {
+    final Channel channel = channels.get(targetNode);
+    synchronized (channel) {
+      // counted before it is queued, so its signal cannot arrive first
+      if (termination != null) termination.sent();
+      if (laiYang != null) {
+        laiYang.eventLock().lock();
+        try {
+          // Lai-Yang only counts the message and tells the receiver which side of the cut it is on
+          final Message.Application message = vectorClock.stamp(id, targetNode);
+          message.setEpoch(laiYang.getEpoch());
+          laiYang.sent(targetNode);
+          channel.send(message);
+          if (flowControl != null) flowControl.sent(targetNode, channel.depth());
+        } finally {
+          laiYang.eventLock().unlock();
+        }
+        return;
+      }
+      snapshots.eventLock().lock();
       try {
-        sendMessage(neighborIndex, new Message.Halt(id));
-      } catch (Exception e) { /* ignore errors reaching already dead clients */ }
+        // every cut recorded before this event owes its marker first
+        for (final SnapshotRecorder recorder : snapshots.active()) {
+          if (recorder.takeMarker(targetNode)) {
+            channel.send(newMarker(recorder, targetNode));
+            if (snapshots.settle(recorder)) snapshotSettled();
+          }
+        }
+        channel.send(vectorClock.stamp(id, targetNode));
+        if (flowControl != null) flowControl.sent(targetNode, channel.depth());
+      } finally {
+        snapshots.eventLock().unlock();
+      }
     }
+  }
 
+  /**
+   * Handle recieving and/or forwarding halt messages indicating completion
+   */
+  private void handleHaltMessage() {
+    // halts arrive from every neighbor, only the first one matters
+    if (!halted.compareAndSet(false, true)) return;
+    transport.close();
     log("finished.. closing.");
-    System.exit(0);
+    log("last passive at " + lastPassive + " ms, halting at " + System.currentTimeMillis() + " ms");
+    if (config.initiators.contains(id)) {
+      synchronized (collections) {
+        log("snapshot scheduling: " + scheduler);
+      }
+    }
+    if (flowControl != null) {
+      log("flow control: " + flowControl);
+    }
+    // send the halt message to every neighbor and let the writers get it out
+    // before closing the sockets, which also releases the readers blocked on them.
+    // errors reaching already dead clients are ignored by the channel
+    for (final Channel channel : channels.values()) {
+      channel.close(new Message.Halt(id));
+    }
+    runtime.shutdown();
   }
 
   /**
    * Handle recieving and/or forwarding snapshot messages to the snapshot initiator
    */
   private void handleSnapshotMessage(final Message.Snapshot snapshotMessage) {
-    // different behavior based on whether the node initiated the snapshot
-    if (id == Node.START_NODE) {
-      log("received snapshot for " + snapshotMessage.getSource());
-      // add nodes' state to global state and then print snapshot
-      globalState.getLocalStates().add(snapshotMessage.getLocalState());
-      globalState.getChannelStates().addAll(snapshotMessage.getChannelStates());
-      // once the size reaches node count excluding the initator,
-      // add the initiator's state and output the snapshot
-      if (globalState.getLocalStates().size() == config.nodes - 1) {
-        // add nodes' state to global state and then print snapshot
-        globalState.getLocalStates().add(localState);
-        globalState.getChannelStates().addAll(channelStates);
-        outputSnapshot();
-      }
+    // reports that left their wave only follow the BFS tree
+    if (snapshotMessage.isToCollector()) {
+      sendToCollector(snapshotMessage);
+      return;
+    }
+    if (laiYang != null) {
+      log("received snapshot for subtree of " + snapshotMessage.getSource());
+      final LaiYangRecorder.Cut cut = laiYang.pending(snapshotMessage.getSnapshot());
+      cut.addReport(snapshotMessage);
+      tryAggregateCut(cut);
+      return;
+    }
+    // Note:
+    // the recorder exists since the report came from a node that recorded
+    // after our marker, which is ahead of the report on the same channel
+    final SnapshotRecorder recorder = snapshots.get(snapshotMessage.getSnapshot());
+    if (config.convergecast) {
+      // children's reports are folded into our own once everything is in
+      log("received snapshot for subtree of " + snapshotMessage.getSource());
+      recorder.addReport(snapshotMessage);
+      tryAggregateSnapshot(recorder);
+      return;
+    }
+    final int forwarder = recorder.getForwarder();
+    if (forwarder == -1) {
+      sendToCollector(snapshotMessage);
     } else {
-      // Note:
-      // Only nodes besides the START_NODE should have an forwarder,
-      // since it is assigned from the marker message source id while the 
-      // initiator node triggers itself
       log("forwarding snapshot message from " + snapshotMessage.getSource() + " to " + forwarder);
+      SnapshotEvents.reportSent(snapshotMessage, id, forwarder, true);
       sendMessage(forwarder, snapshotMessage);
     }
   }
@@ -237,50 +491,125 @@ public class Node {
   /**
    * Handle application messages through vector clock Fidge-Mattern protocol
    */
-  private synchronized void handleApplicationMessage(final Message.Application applicationMessage) {
-    // take the max over each component
-    for (int i = 0; i < vectorClock.length; i++) {
-      vectorClock[i] = Math.max(vectorClock[i], applicationMessage.getVectorClock()[i]);
+  private void handleApplicationMessage(final Message.Application applicationMessage) {
+    if (laiYang != null && applicationMessage.getEpoch() > laiYang.getEpoch()) {
+      // the sender recorded snapshots that we have not, take them before the message
+      recordCuts(applicationMessage.getEpoch() - 1, -1);
+    }
+    final Lock eventLock = laiYang != null ? laiYang.eventLock() : snapshots.eventLock();
+    eventLock.lock();
+    try {
+      // take the max over each component and increment clock of current process
+      final int[] senderClock = vectorClock.receive(id, applicationMessage);
+      if (laiYang != null) {
+        laiYang.received(applicationMessage.getSource());
+      } else {
+        // only record channel updates for snapshots in RED markerMode,
+        // and when the marker response hasnt been seen from the node yet.
+        for (final SnapshotRecorder recorder : snapshots.active()) {
+          recorder.recordMessage(applicationMessage.getSource(), id, senderClock);
+        }
+      }
+      workload.received(applicationMessage.getSource());
+      // activating inside the event keeps a received message and the
+      // activation it causes on the same side of the cut
+      if (termination == null) {
+        tryActivate();
+      } else {
+        synchronized (termination) {
+          final int signal = termination.received(applicationMessage.getSource());
+          if (signal != -1) sendMessage(signal, new Message.Signal(id));
+          tryActivate();
+          // a node engaged without messages left to send leaves right away
+          tryDetach();
+        }
+      }
+    } finally {
+      eventLock.unlock();
+    }
+  }
+
+  /**
+   * Flow control: grant the sender of a handled Application message its credits back,
+   * in batches
+   */
+  private void grantCredits(final int source) {
+    final int credits = flowControl.handled(source);
+    if (credits > 0) sendMessage(source, new Message.Credit(id, credits));
+  }
+
+  /**
+   * Flow control: a neighbor granted credits, resume sending if we were held up on it
+   */
+  private void handleCreditMessage(final Message.Credit creditMessage) {
+    if (flowControl.granted(creditMessage.getSource(), creditMessage.getCredits())) {
+      log("resuming with " + creditMessage.getCredits() + " credits from node " + creditMessage.getSource());
+      // the time spent waiting does not count against the pacing
+      nextSend = runtime.nanoTime();
+      runtime.execute(this::sendApplicationMessage);
     }
-    // increment clock of current process
-    vectorClock[id]++;
-    // only record channel updates when the node is in RED markerMode,
-    // and when the marker response hasnt been seen from the node yet.
-    // This is what is making use of FIFO ordering to get all of the events which
-    // were in transmission since before the marker had been received.
-    if (markerMode.equals(Color.Red) && !markerLog.contains(applicationMessage.getSource())) {
-      channelStates.add(new ChannelState(applicationMessage.getSource(), id, applicationMessage.getVectorClock()));
+  }
+
+  /**
+   * Dijkstra-Scholten: one of our messages has been signaled back
+   */
+  private void handleSignalMessage() {
+    synchronized (termination) {
+      termination.signaled();
+      tryDetach();
+    }
+  }
+
+  /**
+   * Dijkstra-Scholten: leave the tree once passive with every message signaled,
+   * and announce termination when the root gets there.
+   * Must be called holding the detector.
+   */
+  private void tryDetach() {
+    final int parent = termination.detach(getState().equals(State.PASSIVE));
+    if (parent == -1) return;
+    if (parent == id) {
+      log("TERMINATION!");
+      SnapshotEvents.terminationDetected(-1, id, config.terminationDetection);
+      handleHaltMessage();
+    } else {
+      log("leaving the diffusing tree, signaling " + parent);
+      sendMessage(parent, new Message.Signal(id));
     }
   }
 
   /**
    * Handle marker messages that are being seen or sent as decribed by the Chandy-Lamport Protocol.
    */
-  private synchronized void handleMarkerMessage(final Message.Marker incomingMarker) {
-    // If this is the first message seen, then handle color change
-    if (markerMode.equals(Color.Blue)) {
-      // remember who send the initial message
-      forwarder = incomingMarker.getSource();
-      // handle color change and broadcast
-      changeMode();
-    }
-    // mark the channel as recorded
-    markerLog.add(incomingMarker.getSource());
-    // send snapshot to parent and return to blue if the markers were all replied
-    if (markerLog.containsAll(neighbors)) {
-      // relax the node back to Blue to allow for more snapshots
-      markerMode = Color.Blue;
-      // send snapshot to parent since we have recorded all of the
-      // connected neighbors if the node is not the snapshot initiator
-      if (id != Node.START_NODE) {
-        // Note:
-        // Only nodes besides the START_NODE should have an forwarder,
-        // since it is assigned from the marker message source id while the 
-        // initiator node triggers itself.
-        log("sending snapshot to " + forwarder);
-        sendMessage(forwarder, new Message.Snapshot(id, localState, channelStates));
-        // once the snapshot is passed on we can reset the protocol
-        resetSnapshotProtocol();
+  private void handleMarkerMessage(final Message.Marker incomingMarker) {
+    final SnapshotRecorder recorder = snapshots.get(incomingMarker.getSnapshot());
+    ackedSnapshot.accumulateAndGet(incomingMarker.getAcked(), Math::max);
+    SnapshotEvents.markerReceived(incomingMarker.getSnapshot(), id, incomingMarker.getSource(), incomingMarker.getInitiator());
+    // If this is the first message seen, then handle color change and broadcast,
+    // joining the wave of the marker's initiator
+    changeMode(recorder, incomingMarker.getInitiator(), incomingMarker.getSource());
+    // mark the channel as recorded, and send snapshot to parent
+    // once the markers were all replied
+    if (recorder.markerReceived(incomingMarker.getSource(), incomingMarker.isToParent(), incomingMarker.getInitiator())) {
+      SnapshotEvents.colorChange(
+        recorder.getSnapshot(), id, incomingMarker.getSource(), "Blue", System.nanoTime() - recorder.getRedSince());
+      if (snapshots.settle(recorder)) snapshotSettled();
+      if (config.convergecast) {
+        tryAggregateSnapshot(recorder);
+      } else {
+        final List<LocalState> localStates = new ArrayList<>();
+        final List<StateDelta> deltas = new ArrayList<>();
+        addOwnState(recorder.getSnapshot(), recorder.getLocalState(), localStates, deltas);
+        reportSnapshot(recorder, new Message.Snapshot(
+          id,
+          recorder.getSnapshot(),
+          localStates,
+          deltas,
+          recorder.getChannelStates(),
+          recorder.getChannelSummaries(id),
+          null,
+          recorder.getWaves()
+        ));
       }
     }
   }
@@ -288,44 +617,432 @@ public class Node {
   /**
    * Process transition from Blue to Red Chandy-Lamport state
    */
-  private synchronized void changeMode() {
-    // switch the markerMode from Blue to Red
-    markerMode = Color.Red;
-    // increment clock of in order to maintain clock lead over receivers
-    vectorClock[id]++;
-    // record the node's local state
-    localState = new LocalState(id, vectorClock, state);
-    // send out the new marker messages to all outgoing channels
-    final Message markerMessage = new Message.Marker(id);
+  private void changeMode(final SnapshotRecorder recorder, final int region, final int forwarder) {
+    // record the node's local state, nothing to do if already Red
+    // reports follow the BFS tree when asked to, otherwise the first marker
+    final int parent = config.snapshotTree.equals("bfs") ? collectorTree.getParent(id) : forwarder;
+    final long recordStarted = System.nanoTime();
+    final boolean changed = snapshots.record(recorder, region, parent, () -> {
+      // increment clock of in order to maintain clock lead over receivers
+      vectorClock.tick(id);
+      return new LocalState(id, vectorClock.toArray(), state);
+    });
+    if (!changed) return;
+    SnapshotEvents.colorChange(recorder.getSnapshot(), id, forwarder, "Red", System.nanoTime() - recordStarted);
+    // send out the new marker messages to all outgoing channels,
+    // unless an application send already had to flush one
     for (int neighborIndex : neighbors) {
-      sendMessage(neighborIndex, markerMessage);
+      final Channel channel = channels.get(neighborIndex);
+      synchronized (channel) {
+        if (recorder.takeMarker(neighborIndex)) {
+          channel.send(newMarker(recorder, neighborIndex));
+        }
+      }
     }
+    if (snapshots.settle(recorder)) snapshotSettled();
+  }
+
+  /**
+   * Markers carry the snapshot and wave they belong to, and tell the neighbor
+   * whether it is our parent in the snapshot tree, so every node learns its
+   * children before its recording completes
+   */
+  private Message.Marker newMarker(final SnapshotRecorder recorder, final int targetNode) {
+    return new Message.Marker(
+      id, recorder.getSnapshot(), recorder.getRegion(), targetNode == recorder.getForwarder(), ackedSnapshot.get());
+  }
+
+  /**
+   * Convergecast: once the local recording is complete and every child in the
+   * tree has reported, fold their reports into ours and send a single report
+   * up the tree
+   */
+  private void tryAggregateSnapshot(final SnapshotRecorder recorder) {
+    final List<Message.Snapshot> reports = recorder.collectReports();
+    if (reports == null) return;
+
+    final Message.Snapshot report = aggregate(
+      recorder.getSnapshot(),
+      recorder.getLocalState(),
+      recorder.getChannelStates(),
+      recorder.getChannelSummaries(id),
+      SnapshotSummary.of(recorder.getLocalState(), recorder.getInTransit()),
+      recorder.getWaves(),
+      reports
+    );
+    reportSnapshot(recorder, report);
+  }
+
+  /**
+   * Fold the reports of our children into our own recorded state
+   */
+  private Message.Snapshot aggregate(
+    final int snapshot,
+    final LocalState localState,
+    final List<ChannelState> channelStates,
+    final List<ChannelSummary> channelSummaries,
+    final SnapshotSummary summary,
+    final Set<Integer> waves,
+    final List<Message.Snapshot> reports
+  ) {
+    final List<LocalState> localStates = new ArrayList<>();
+    final List<StateDelta> deltas = new ArrayList<>();
+    addOwnState(snapshot, localState, localStates, deltas);
+    for (final Message.Snapshot report : reports) {
+      localStates.addAll(report.getLocalStates());
+      deltas.addAll(report.getDeltas());
+      channelStates.addAll(report.getChannelStates());
+      channelSummaries.addAll(report.getChannelSummaries());
+      summary.merge(report.getSummary());
+      waves.addAll(report.getWaves());
+    }
+    log("aggregated snapshot " + snapshot + " for " + (localStates.size() + deltas.size()) + " nodes");
+    return new Message.Snapshot(id, snapshot, localStates, deltas, channelStates, channelSummaries, summary, waves);
+  }
+
+  /**
+   * Add our own state to a report. With deltaReports it goes out as the changes
+   * since our report for the latest snapshot the collector has acknowledged,
+   * unless that report is no longer around.
+   */
+  private void addOwnState(
+    final int snapshot,
+    final LocalState localState,
+    final List<LocalState> localStates,
+    final List<StateDelta> deltas
+  ) {
+    if (config.deltaReports) {
+      final int base = ackedSnapshot.get();
+      final LocalState previous = reportedStates.get(base);
+      reportedStates.put(snapshot, localState);
+      // acknowledgements only move forward, so older reports are never a base again
+      reportedStates.keySet().removeIf(s -> s < base);
+      if (previous != null && snapshot - base <= DELTA_WINDOW) {
+        deltas.add(StateDelta.of(base, previous, localState));
+        return;
+      }
+    }
+    localStates.add(localState);
+  }
+
+  /**
+   * Lai-Yang: record every snapshot up to the given one, pass each cut on along
+   * the BFS tree for nodes that no application message will reach, and report it.
+   * The cut is not sent back to the tree neighbor it came from.
+   */
+  private void recordCuts(final int snapshot, final int source) {
+    final long recordStarted = System.nanoTime();
+    final List<LaiYangRecorder.Cut> cuts = laiYang.record(snapshot, () -> {
+      // increment clock of in order to maintain clock lead over receivers
+      vectorClock.tick(id);
+      return new LocalState(id, vectorClock.toArray(), state);
+    });
+    final long recorded = System.nanoTime() - recordStarted;
+    for (final LaiYangRecorder.Cut cut : cuts) {
+      // channels are only counted, so a Lai-Yang cut has no Blue again
+      SnapshotEvents.colorChange(cut.getSnapshot(), id, source, "Red", recorded);
+      // neighbors that recorded already ignore the request
+      for (int neighborIndex : treeNeighbors) {
+        if (neighborIndex != source) {
+          sendMessage(neighborIndex, new Message.Cut(id, cut.getSnapshot(), ackedSnapshot.get()));
+        }
+      }
+      if (config.convergecast) {
+        final LaiYangRecorder.Cut pending = laiYang.pending(cut.getSnapshot());
+        pending.recorded(cut);
+        tryAggregateCut(pending);
+      } else {
+        final List<LocalState> localStates = new ArrayList<>();
+        final List<StateDelta> deltas = new ArrayList<>();
+        addOwnState(cut.getSnapshot(), cut.getLocalState(), localStates, deltas);
+        sendToCollector(new Message.Snapshot(
+          id, cut.getSnapshot(), localStates, deltas, List.of(), List.of(), cut.summarize(), new TreeSet<>()));
+      }
+    }
+  }
+
+  /**
+   * Lai-Yang convergecast: reports always follow the BFS tree, so the children are known up front
+   */
+  private void tryAggregateCut(final LaiYangRecorder.Cut cut) {
+    final List<Message.Snapshot> reports = cut.collectReports(treeChildren);
+    if (reports == null) return;
+    laiYang.remove(cut.getSnapshot());
+
+    final Message.Snapshot report = aggregate(
+      cut.getSnapshot(), cut.getLocalState(), new ArrayList<>(), new ArrayList<>(), cut.summarize(), new TreeSet<>(), reports);
+    if (id == Node.START_NODE) {
+      collectSnapshot(report);
+    } else {
+      SnapshotEvents.reportSent(report, id, collectorTree.getParent(id), false);
+      sendMessage(collectorTree.getParent(id), report);
+    }
+  }
+
+  /**
+   * Handle a Lai-Yang cut request coming down the tree
+   */
+  private void handleCutMessage(final Message.Cut cutMessage) {
+    ackedSnapshot.accumulateAndGet(cutMessage.getAcked(), Math::max);
+    SnapshotEvents.markerReceived(cutMessage.getSnapshot(), id, cutMessage.getSource(), Node.START_NODE);
+    recordCuts(cutMessage.getSnapshot(), cutMessage.getSource());
+  }
+
+  /**
+   * Send a finished report to our parent in the snapshot tree, or on to the
+   * collector from the root of the tree, which is the initiator of our wave
+   */
+  private void reportSnapshot(final SnapshotRecorder recorder, final Message.Snapshot report) {
+    final int forwarder = recorder.getForwarder();
+    // once the snapshot is reported its state can go
+    recorder.release();
+    if (forwarder == -1) {
+      sendToCollector(report);
+    } else {
+      log("sending snapshot " + report.getSnapshot() + " to " + forwarder);
+      SnapshotEvents.reportSent(report, id, forwarder, false);
+      sendMessage(forwarder, report);
+    }
+  }
+
+  /**
+   * Spezialetti-Kearns: the waves of initiators that started the same snapshot
+   * meet and split the nodes into regions, each reported up its own marker tree.
+   * Region reports are merged at START_NODE, reaching it over the BFS tree.
+   */
+  private void sendToCollector(final Message.Snapshot report) {
+    if (id == Node.START_NODE) {
+      collectSnapshot(report);
+    } else {
+      final int parent = collectorTree.getParent(id);
+      log("sending snapshot " + report.getSnapshot() + " toward the collector through " + parent);
+      SnapshotEvents.reportSent(report, id, parent, report.getSource() != id);
+      sendMessage(parent, report.toCollector());
+    }
+  }
+
+  /**
+   * Merge a report into its global state, and output the snapshot once every node is in
+   */
+  private void collectSnapshot(final Message.Snapshot report) {
+    log("received snapshot " + report.getSnapshot() + " for " + report.size() +
+      " nodes from " + report.getSource() + ", " + report.getDeltas().size() + " as deltas");
+    synchronized (collections) {
+      if (isSettledRound(report.getSnapshot())) {
+        log("discarding a late report for snapshot " + report.getSnapshot());
+        report.getChannelSummaries().forEach(ChannelSummary::release);
+        return;
+      }
+      final GlobalState globalState = collections.computeIfAbsent(report.getSnapshot(), GlobalState::new);
+      globalState.add(report);
+      for (final StateDelta delta : report.getDeltas()) {
+        if (!addDelta(globalState, delta)) {
+          abortSnapshot(globalState);
+          return;
+        }
+      }
+      tryOutput(globalState);
+    }
+  }
+
+  /**
+   * Rebuild the state of a node from its delta report. A delta against a snapshot
+   * still being collected waits until that one is output. Returns false when the
+   * base was given up already, so the state cannot be rebuilt anymore.
+   * Must be called holding collections.
+   */
+  private boolean addDelta(final GlobalState globalState, final StateDelta delta) {
+    final GlobalState base = completed.get(delta.getBase());
+    if (base != null) {
+      globalState.addLocalState(delta.apply(base.getLocalState(delta.getID())));
+      return true;
+    }
+    if (isSettledRound(delta.getBase())) {
+      log("snapshot " + delta.getBase() + " is no longer kept to apply the delta of node " + delta.getID() +
+        " for snapshot " + globalState.getSnapshot());
+      return false;
+    }
+    log("the delta of node " + delta.getID() + " for snapshot " + globalState.getSnapshot() +
+      " waits for snapshot " + delta.getBase());
+    globalState.defer(delta);
+    return true;
+  }
+
+  /**
+   * Output a snapshot once every node is in, then the snapshots whose deltas waited for it.
+   * Must be called holding collections.
+   */
+  private void tryOutput(final GlobalState globalState) {
+    if (globalState.getLocalStates().size() < config.nodes) {
+      if (config.earlyAbort && termination == null && isNotTerminated(globalState)) {
+        abortSnapshot(globalState);
+      }
+      return;
+    }
+    collections.remove(globalState.getSnapshot());
+    settleRound(globalState.getSnapshot());
+    if (config.deltaReports) {
+      // acknowledged with the next markers, which lets nodes send deltas against it
+      completed.put(globalState.getSnapshot(), globalState);
+      ackedSnapshot.accumulateAndGet(globalState.getSnapshot(), Math::max);
+      // a report still to come is for lowWater or later, and its base is within the window of it
+      completed.keySet().removeIf(s -> s < lowWater - DELTA_WINDOW);
+    }
+    // an earlier snapshot may have already found termination
+    if (halted.get()) {
+      globalState.release();
+      return;
+    }
+    SnapshotEvents.assembled(globalState, id);
+    // aggregated and Lai-Yang reports count the messages in transit in their summaries
+    final SnapshotSummary summary = globalState.getSummary();
+    final long checkStarted = System.nanoTime();
+    final boolean consistent = config.convergecast ? summary.isConsistent() : isSnapshotConsistent(globalState);
+    SnapshotEvents.consistencyChecked(globalState.getSnapshot(), id, consistent, System.nanoTime() - checkStarted);
+    outputSnapshot(
+      globalState,
+      consistent,
+      summary != null ? summary.isTerminated() : isTerminationDetected(globalState)
+    );
+    for (final GlobalState waiting : new ArrayList<>(collections.values())) {
+      final List<StateDelta> deltas = waiting.takeDeferred(globalState.getSnapshot());
+      if (deltas.isEmpty() || !collections.containsKey(waiting.getSnapshot())) continue;
+      deltas.forEach(delta -> addDelta(waiting, delta));
+      tryOutput(waiting);
+    }
+  }
+
+  /**
+   * Whether the partial state of a snapshot already rules out termination.
+   * A Lai-Yang count only adds up to the messages in transit once every node
+   * is in, so only the recorded states decide those early.
+   */
+  private boolean isNotTerminated(final GlobalState globalState) {
+    return globalState.getActive() > 0 || (laiYang == null && globalState.getInTransit() > 0);
+  }
+
+  /**
+   * Give up on a snapshot that cannot find termination anymore, discarding the
+   * reports still to come, which frees its slot for the next snapshot.
+   * Must be called holding collections.
+   */
+  private void abortSnapshot(final GlobalState globalState) {
+    log("snapshot " + globalState.getSnapshot() + " aborted with " + globalState.getLocalStates().size() + " of " +
+      config.nodes + " nodes in, " + globalState.getActive() + " active and " + globalState.getInTransit() + " messages in transit");
+    collections.remove(globalState.getSnapshot());
+    settleRound(globalState.getSnapshot());
+    globalState.release();
+    scheduler.aborted();
+    log("CONTINUING!");
+    armSnapshotTimer();
+    // deltas waiting for this snapshot cannot be rebuilt anymore
+    for (final GlobalState waiting : new ArrayList<>(collections.values())) {
+      if (waiting.waitsFor(globalState.getSnapshot()) && collections.containsKey(waiting.getSnapshot())) {
+        abortSnapshot(waiting);
+      }
+    }
+  }
+
+  /**
+   * A snapshot was output or aborted, no report for it is used anymore.
+   * Must be called holding collections.
+   */
+  private void settleRound(final int snapshot) {
+    completedAbove.add(snapshot);
+    while (completedAbove.remove(lowWater)) lowWater++;
+  }
+
+  /**
+   * Whether every report of a snapshot is late, it was output or aborted already.
+   * Must be called holding collections.
+   */
+  private boolean isSettledRound(final int snapshot) {
+    return snapshot < lowWater || completedAbove.contains(snapshot);
   }
 
   private void runSnapshotTimer() {
-    new Thread(() -> {
-      try {
-        Thread.sleep(config.snapshotDelay);
-        log("initiating snapshot!");
-        changeMode();
-      } catch (Exception e) {
-        e.printStackTrace();
+    runtime.schedule(this::initiateSnapshot, scheduler.nextDelay());
+  }
+
+  /**
+   * Arm the timer for the next snapshot if this node initiates and fewer than
+   * concurrentSnapshots are open. START_NODE counts the snapshots it is still
+   * collecting, other initiators cannot see collection and count the ones still
+   * recording here instead. Must be called holding collections.
+   */
+  private void armSnapshotTimer() {
+    if (timerArmed || halted.get() || !config.initiators.contains(id)) return;
+    final int open = id == Node.START_NODE ? collections.size() : snapshots.active().size();
+    if (open < config.concurrentSnapshots) {
+      timerArmed = true;
+      runSnapshotTimer();
+    }
+  }
+
+  /**
+   * A snapshot stopped recording here, which frees a slot for initiators other than START_NODE
+   */
+  private void snapshotSettled() {
+    if (id != Node.START_NODE) {
+      synchronized (collections) {
+        armSnapshotTimer();
       }
-    }).start();
+    }
   }
 
-  private int randomNeighbor() {
-    return neighbors.get(new Random().nextInt(neighbors.size()));
+  /**
+   * Start a new snapshot from this node, then arm the timer again if there is still room
+   */
+  private void initiateSnapshot() {
+    final int snapshot = laiYang != null ? laiYang.getEpoch() : snapshots.next().getSnapshot();
+    log("initiating snapshot " + snapshot + "!");
+    SnapshotEvents.initiated(snapshot, id, config.snapshotEngine);
+    synchronized (collections) {
+      timerArmed = false;
+      if (id == Node.START_NODE) {
+        collections.computeIfAbsent(snapshot, GlobalState::new);
+      }
+    }
+    if (laiYang != null) {
+      recordCuts(snapshot, -1);
+    } else {
+      changeMode(snapshots.get(snapshot), id, -1);
+    }
+    synchronized (collections) {
+      armSnapshotTimer();
+    }
   }
 
-  private int generateMessages(final int max, final int min) {
-    return new Random().nextInt(max - min + 1) + min;
+  /**
+   * Credits and stalls of the outgoing channels, null without flow control
+   */
+  FlowControl getFlowControl() {
+    return flowControl;
   }
 
-  public List<Integer> getNeighbors() {
+  public int[] getNeighbors() {
     return neighbors;
   }
 
+  /**
+   * Collection time of the snapshots output so far, in microseconds
+   */
+  LongSummaryStatistics getSnapshotLatency() {
+    synchronized (collections) {
+      final LongSummaryStatistics copy = new LongSummaryStatistics();
+      copy.combine(snapshotLatency);
+      return copy;
+    }
+  }
+
+  public String getHostName() {
+    return hostName;
+  }
+
+  public int getListenPort() {
+    return listenPort;
+  }
+
   private State getState() {
     return state;
   }
@@ -334,30 +1051,42 @@ public class Node {
     this.state = state;
   }
 
-  private void outputSnapshot() {
+  private void outputSnapshot(final GlobalState globalState, final boolean consistent, final boolean terminated) {
     log("snapshot taken!");
-    if (!isSnapshotConsistent()) {
+    final long latency = (System.nanoTime() - globalState.getStarted()) / 1000;
+    snapshotLatency.accept(latency);
+    log("snapshot " + globalState.getSnapshot() + " collected in " +
+      latency + " us with " + config.snapshotEngine + " over the " + (laiYang != null ? "bfs" : config.snapshotTree) + " tree" +
+      (globalState.getWaves().size() > 1 ? ", merging the waves of " + globalState.getWaves() : ""));
+    if (!consistent) {
       err("FAILED CHECK... snapshot inconsistent!");
     } else {
       log("consistent snapshot!");
     }
 
-    writeSnapshots();
+    store.append(globalState);
+    scheduler.observe(globalState, terminated);
+    globalState.release();
 
-    if (isTerminationDetected()) {
+    if (terminated && termination == null) {
       log("TERMINATION!");
+      SnapshotEvents.terminationDetected(globalState.getSnapshot(), id, config.terminationDetection);
       handleHaltMessage();
     } else {
       log("CONTINUING!");
-      resetSnapshotProtocol();
-      runSnapshotTimer();
+      if (config.snapshotSchedule.equals("adaptive")) {
+        log("next snapshot in " + scheduler.getDelay() + " ms, " + globalState.getActive() + " nodes active and " +
+          globalState.getInTransit() + " messages in transit");
+      }
+      // the timer waits for a free slot when concurrentSnapshots are open
+      armSnapshotTimer();
     }
   }
 
   /**
    * Return where the Global State snapshot is a consistent snapshot
    */
-  private boolean isSnapshotConsistent() {
+  private boolean isSnapshotConsistent(final GlobalState globalState) {
     for (final LocalState e : globalState.getLocalStates()) {
       for (final LocalState f : globalState.getLocalStates()) {
         // For every ordered pair of states we want to verify that:
@@ -381,8 +1110,8 @@ public class Node {
    * Detect termination by verifying that all
    * nodes are passive and channels are empty
    */
-  private boolean isTerminationDetected() {
-    if (!globalState.getChannelStates().isEmpty()) {
+  private boolean isTerminationDetected(final GlobalState globalState) {
+    if (!globalState.getChannelStates().isEmpty() || !globalState.getChannelSummaries().isEmpty()) {
       return false;
     }
 
@@ -395,56 +1124,40 @@ public class Node {
     return true;
   }
 
-  /**
-   * Reset variables involved in snapshot protocol
-   */
-  private void resetSnapshotProtocol() {
-    if (globalState != null) globalState.reset();
-    localState = null;
-    channelStates.clear();
-    markerLog.clear();
-  }
-
   /**
    * Send a message to a target node with a provided Message.
    * 
    * Note:
-   *  important synchronized resource, only one thread
-   *  should be using the output stream at once
+   *  this only queues the message on the neighbor's channel,
+   *  the channel's writer does the actual socket write
    */
-  private synchronized void sendMessage(final int targetNode, final Message message) {
-    try {
-      final ObjectOutputStream ostream = outputStreams.get(targetNode);
-      ostream.writeObject(message);
-      ostream.flush();
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+  private void sendMessage(final int targetNode, final Message message) {
+    channels.get(targetNode).send(message);
   }
 
   /**
-   * Write the vector clocks from the timestamp into their according output files
+   * Name shared by the output files of a config, the config file name without its extension
    */
-  private void writeSnapshots() {
-    try {
-      final File configFile = new File(Node.configPath);
-      final String configNameWithoutExt = configFile.getName().substring(0, configFile.getName().length() - ".txt".length());
-      final String configDirectory = configFile.getAbsoluteFile().getParent();
-
-      for (final LocalState snapshotState : globalState.getLocalStates()) {
-        final File outputFile = new File(configDirectory + "/" + configNameWithoutExt + "-" + snapshotState.getID() + ".out");
-        final PrintWriter outputWriter = new PrintWriter(new FileOutputStream(outputFile, true));
-
-        for (int clockValue : snapshotState.getApplicationClock()) {
-          outputWriter.append(clockValue + " ");
-        }
-        outputWriter.append("\n");
+  static String outputName(final File configFile) {
+    return configFile.getName().substring(0, configFile.getName().length() - ".txt".length());
+  }
 
-        outputWriter.close();
-      }
-    } catch (Exception e) {
-      e.printStackTrace();
+  /**
+   * Wait for the node to halt, remove the spills of the snapshots still open,
+   * then finish writing the snapshot history and export it to the legacy text files
+   */
+  void awaitHalt() throws Exception {
+    runtime.awaitShutdown();
+    snapshots.release();
+    synchronized (collections) {
+      collections.values().forEach(GlobalState::release);
+    }
+    if (store == null) return;
+    store.flush();
+    if (config.legacyOutput) {
+      store.exportText();
     }
+    store.close();
   }
 
   private void err(final String message) {
@@ -456,5 +1169,4 @@ public class Node {
   }
 
   public enum State { PASSIVE, ACTIVE }
-  private enum Color { Blue, Red }
 }
@@ -0,0 +1,128 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Execution runtime owned by a single Node.
+ *
+ * Blocking socket readers run on a reader executor, which uses virtual threads
+ * when the JVM provides them and falls back to a cached pool of daemon threads.
+ * Everything else (activations, send pacing and the snapshot timer) runs on a
+ * single scheduler thread, so the thread count no longer grows with the number
+ * of activations.
+ */
+public class NodeRuntime {
+  private final ExecutorService readers;
+  private final ScheduledThreadPoolExecutor scheduler;
+  private final CountDownLatch terminated = new CountDownLatch(1);
+  private volatile Thread schedulerThread;
+
+  public NodeRuntime(final int id) {
+    this.readers = readerExecutor(id);
+    final ThreadFactory factory = namedDaemon("node-" + id + "-scheduler");
+    this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> schedulerThread = factory.newThread(runnable));
+    // pending send pacing and snapshot timers are meaningless once halted
+    this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  /**
+   * For runtimes that run the tasks themselves and override every method
+   */
+  protected NodeRuntime() {
+    this.readers = null;
+    this.scheduler = null;
+  }
+
+  /**
+   * Run a task that blocks on a socket for its whole lifetime
+   */
+  public void read(final Runnable reader) {
+    readers.execute(reader);
+  }
+
+  /**
+   * Run a protocol task on the scheduler thread as soon as possible
+   */
+  public void execute(final Runnable task) {
+    scheduler.execute(task);
+  }
+
+  /**
+   * Run a protocol task on the scheduler thread after a delay in milliseconds
+   */
+  public ScheduledFuture<?> schedule(final Runnable task, final long delay) {
+    return scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Run a protocol task on the scheduler thread after a delay in nanoseconds
+   */
+  public ScheduledFuture<?> scheduleNanos(final Runnable task, final long delay) {
+    return scheduler.schedule(task, delay, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Current time of the runtime in nanoseconds, to pace sends against
+   */
+  public long nanoTime() {
+    return System.nanoTime();
+  }
+
+  public boolean isShutdown() {
+    return scheduler.isShutdown();
+  }
+
+  /**
+   * Stop accepting work and wait briefly for queued tasks to finish.
+   * Readers blocked on sockets are interrupted and exit once their socket closes.
+   * A task halting the node from the scheduler thread does not wait, as the
+   * scheduler cannot terminate before that very task returns.
+   */
+  public void shutdown() {
+    scheduler.shutdown();
+    readers.shutdownNow();
+    if (Thread.currentThread() != schedulerThread) {
+      try {
+        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    terminated.countDown();
+  }
+
+  /**
+   * Block the calling thread until the runtime has been shut down.
+   * Runtime threads are daemons, so this is what keeps the JVM alive.
+   */
+  public void awaitShutdown() throws InterruptedException {
+    terminated.await();
+  }
+
+  private static ExecutorService readerExecutor(final int id) {
+    // virtual threads are only available from Java 21, look them up
+    // reflectively so the project still builds on older compilers
+    try {
+      final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (Exception e) {
+      return Executors.newCachedThreadPool(namedDaemon("node-" + id + "-reader"));
+    }
+  }
+
+  private static ThreadFactory namedDaemon(final String prefix) {
+    final AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      final Thread thread = new Thread(runnable, prefix + "-" + count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,121 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Outgoing half of a channel to one neighbor.
+ *
+ * Senders only enqueue, and a dedicated writer drains everything queued so far
+ * into one buffered write with a single flush, so bursts of Application messages
+ * from the MAP sender or marker broadcasts share one syscall. Messages are written
+ * in exactly the order they were enqueued, which keeps the channel FIFO for markers.
+ */
+public class OutboundChannel implements Channel {
+  // written by close() to tell the writer there is nothing left to send
+  private static final Message CLOSE = new Message.Halt(-1);
+
+  private final int neighbor;
+  private final Socket socket;
+  private final ObjectOutputStream ostream;
+  private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+  private final CountDownLatch drained = new CountDownLatch(1);
+  private volatile boolean closing = false;
+
+  public OutboundChannel(final int neighbor, final Socket socket) throws IOException {
+    this.neighbor = neighbor;
+    this.socket = socket;
+    this.ostream = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    // push the stream header out now, the peer blocks on it before reading anything
+    this.ostream.flush();
+  }
+
+  @Override
+  public int getNeighbor() {
+    return neighbor;
+  }
+
+  /**
+   * Queue a message for the writer without blocking on the socket
+   */
+  @Override
+  public void send(final Message message) {
+    queue.add(message);
+  }
+
+  /**
+   * Number of messages waiting for the writer
+   */
+  @Override
+  public int depth() {
+    return queue.size();
+  }
+
+  /**
+   * Writer loop, runs on its own runtime reader for the lifetime of the channel
+   */
+  public void drain() {
+    final List<Message> batch = new ArrayList<>();
+    try {
+      while (true) {
+        batch.add(queue.take());
+        queue.drainTo(batch);
+        boolean done = false;
+        for (final Message message : batch) {
+          if (message == CLOSE) {
+            done = true;
+            break;
+          }
+          ostream.writeObject(message);
+        }
+        ostream.flush();
+        // drop back-references so the stream does not hold every message ever sent
+        ostream.reset();
+        batch.clear();
+        if (done) break;
+      }
+    } catch (InterruptedException e) {
+      // runtime shut down underneath the writer
+    } catch (IOException e) {
+      // the peer may already have hung up while we say goodbye, or halted while
+      // reports of another snapshot were still on their way to it
+      if (!closing) System.err.println("lost the channel to node " + neighbor + ": " + e.getMessage());
+    } finally {
+      drained.countDown();
+    }
+  }
+
+  /**
+   * Queue a last message to a peer that may be closing the edge at the same
+   * time, write whatever is still queued and close the socket
+   */
+  @Override
+  public void close(final Message farewell) {
+    closing = true;
+    queue.add(farewell);
+    close();
+  }
+
+  /**
+   * Write whatever is still queued and close the socket
+   */
+  public void close() {
+    closing = true;
+    queue.add(CLOSE);
+    try {
+      drained.await(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      socket.close();
+    } catch (IOException e) { /* already closed by the peer */ }
+  }
+}
@@ -0,0 +1,312 @@
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Consumer;
+
+
+/**
+ * Deterministic replay of a traced run in one process.
+ *
+ *  java -cp build Replay <traced config> [replay config] [verbose]
+ *
+ * Every node of the replay config sends the Application messages it sent in the
+ * traces of the traced config (see TraceWorkload), while snapshots, reports and
+ * termination follow the replay config, so one trace can be rerun under several
+ * snapshot settings. Both configs need the same nodes and neighbors.
+ *
+ * Every task and message delivery of every node runs on a single thread, ordered by
+ * a virtual clock in nanoseconds and then by the order they were queued in. Timers
+ * and send delays advance the virtual clock instead of waiting, and a message takes
+ * LATENCY to cross a channel, so the replay runs as fast as the CPU allows and gives
+ * the same result every time.
+ */
+public class Replay {
+  // virtual nanoseconds for a message to cross a channel
+  private static final long LATENCY = 1_000_000;
+
+  private final Config config;
+  private final List<Consumer<Message>> receivers;
+  private final boolean[] halted;
+  private final PriorityQueue<Event> events = new PriorityQueue<>();
+  // tasks queued by nodes starting up on their own threads, run once every node is up
+  private final List<List<Runnable>> deferred = new ArrayList<>();
+  private Thread loop;
+  private volatile boolean replaying = false;
+  private long now = 0;
+  private long queued = 0;
+  private long messages = 0;
+  private long applicationMessages = 0;
+
+  public static void main(String[] args) throws Exception {
+    final File tracedConfig = new File(args[0]);
+    final File configFile = args.length > 1 && !args[1].equals("verbose") ? new File(args[1]) : tracedConfig;
+    final boolean verbose = args[args.length - 1].equals("verbose");
+    final Config config = Config.fromFile(configFile);
+    final PrintStream out = System.out;
+    if (!verbose) {
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    final Replay replay = new Replay(config);
+    final long started = System.nanoTime();
+    replay.run(configFile, tracedConfig);
+    final long elapsed = System.nanoTime() - started;
+
+    out.println(config.nodes + " nodes halted at " + replay.now / 1_000_000 + " virtual ms, replayed in " + elapsed / 1_000_000 + " ms");
+    out.println(config.node(0).getSnapshotLatency().getCount() + " snapshots output");
+    out.println(replay.messages + " messages, " + replay.applicationMessages + " application, " +
+      (long) (replay.messages / (elapsed / 1e9)) + " messages/s");
+  }
+
+  private Replay(final Config config) {
+    this.config = config;
+    this.receivers = new ArrayList<>(Collections.nCopies(config.nodes, null));
+    this.halted = new boolean[config.nodes];
+  }
+
+  private void run(final File configFile, final File tracedConfig) throws Exception {
+    loop = Thread.currentThread();
+    final File traceDirectory = tracedConfig.getAbsoluteFile().getParentFile();
+    // initiators block until every node is connected, so every node starts on its own thread
+    // while this thread delivers the readiness messages
+    final List<Thread> starters = new ArrayList<>();
+    for (int i = 0; i < config.nodes; i++) {
+      final int id = i;
+      final Node node = config.node(id);
+      final File trace = new File(traceDirectory, Node.outputName(tracedConfig) + "-" + id + ".trace");
+      final List<Runnable> startup = new ArrayList<>();
+      deferred.add(startup);
+      final Thread starter = new Thread(() -> {
+        try {
+          final Workload workload = TraceWorkload.fromTrace(trace, config.minSendDelay * 1_000_000L);
+          node.run(config, configFile, transport(id), new Runtime(startup), workload);
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }, "replay-start-" + id);
+      starter.start();
+      starters.add(starter);
+    }
+    // deliver until the starters are done, which is once the go reached every initiator
+    while (true) {
+      drain();
+      synchronized (events) {
+        if (!events.isEmpty()) continue;
+        if (starters.stream().noneMatch(Thread::isAlive)) break;
+        events.wait(1);
+      }
+    }
+    // the clock starts once every node is up, whenever the go got through,
+    // and so do the message counts as readiness depends on thread timing
+    replaying = true;
+    synchronized (events) {
+      messages = 0;
+    }
+    // what the nodes queued while starting goes in by node id
+    for (final List<Runnable> startup : deferred) {
+      for (final Runnable task : startup) {
+        post(0, task);
+      }
+    }
+    drain();
+    for (int i = 0; i < config.nodes; i++) {
+      config.node(i).awaitHalt();
+    }
+  }
+
+  /**
+   * Run events in order until none are left
+   */
+  private void drain() {
+    while (true) {
+      final Event event;
+      synchronized (events) {
+        event = events.poll();
+      }
+      if (event == null) return;
+      if (replaying) now = Math.max(now, event.time);
+      event.task.run();
+    }
+  }
+
+  private void post(final long delay, final Runnable task) {
+    synchronized (events) {
+      events.add(new Event(now + delay, queued++, task));
+      events.notify();
+    }
+  }
+
+  private static class Event implements Comparable<Event> {
+    private final long time;
+    private final long order;
+    private final Runnable task;
+
+    Event(final long time, final long order, final Runnable task) {
+      this.time = time;
+      this.order = order;
+      this.task = task;
+    }
+
+    @Override
+    public int compareTo(final Event other) {
+      return time != other.time ? Long.compare(time, other.time) : Long.compare(order, other.order);
+    }
+  }
+
+  /**
+   * Runtime of a node on the replay thread. Nothing cancels scheduled tasks,
+   * so there are no futures to hand out.
+   */
+  private class Runtime extends NodeRuntime {
+    private final List<Runnable> startup;
+    private boolean shutdown = false;
+
+    Runtime(final List<Runnable> startup) {
+      this.startup = startup;
+    }
+
+    /**
+     * Does nothing: replayed nodes get their transport from the replay, which
+     * delivers on the replay thread and never blocks on a reader
+     */
+    @Override
+    public void read(final Runnable reader) {
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+      schedule(task, 0);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(final Runnable task, final long delay) {
+      return scheduleNanos(task, delay * 1_000_000);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleNanos(final Runnable task, final long delay) {
+      final Runnable guarded = () -> {
+        if (!shutdown) task.run();
+      };
+      if (Thread.currentThread() == loop) {
+        post(delay, guarded);
+      } else {
+        // a node still starting up, its timers start with the replay
+        synchronized (startup) {
+          startup.add(() -> post(delay, guarded));
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public long nanoTime() {
+      return now;
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return shutdown;
+    }
+
+    @Override
+    public void shutdown() {
+      shutdown = true;
+    }
+
+    @Override
+    public void awaitShutdown() {
+      // the replay is over once there are no events left
+    }
+  }
+
+  /**
+   * Transport of a node, a message is delivered LATENCY after it was sent
+   * unless the receiver has halted
+   */
+  private Transport transport(final int id) {
+    return new Transport() {
+      @Override
+      public void connect(final NodeRuntime runtime, final Consumer<Channel> connected, final Consumer<Message> received) {
+        synchronized (events) {
+          receivers.set(id, received);
+        }
+        for (int neighborIndex : config.topology.neighbors(id)) {
+          connected.accept(new Link(neighborIndex));
+        }
+      }
+
+      @Override
+      public void close() {
+        halted[id] = true;
+      }
+    };
+  }
+
+  /**
+   * Outgoing half of a replayed channel. Every delivery takes the oldest message
+   * on the channel, so the channel stays FIFO even when a delivery has to wait
+   * for its receiver to connect.
+   */
+  private class Link implements Channel {
+    private final int neighbor;
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    private boolean closed = false;
+
+    Link(final int neighbor) {
+      this.neighbor = neighbor;
+    }
+
+    @Override
+    public int getNeighbor() {
+      return neighbor;
+    }
+
+    @Override
+    public void send(final Message message) {
+      synchronized (events) {
+        if (closed) return;
+        messages++;
+        if (message instanceof Message.Application) applicationMessages++;
+        queue.add(message);
+      }
+      post(LATENCY, this::deliver);
+    }
+
+    private void deliver() {
+      final Consumer<Message> receiver;
+      final Message message;
+      synchronized (events) {
+        receiver = receivers.get(neighbor);
+        if (receiver == null) {
+          // only while starting up, the neighbor is not connected yet
+          post(LATENCY, this::deliver);
+          return;
+        }
+        message = queue.poll();
+      }
+      if (!halted[neighbor]) receiver.accept(message);
+    }
+
+    @Override
+    public int depth() {
+      synchronized (events) {
+        return queue.size();
+      }
+    }
+
+    @Override
+    public void close(final Message farewell) {
+      send(farewell);
+      synchronized (events) {
+        closed = true;
+      }
+    }
+  }
+}
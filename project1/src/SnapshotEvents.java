@@ -0,0 +1,165 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+
+/**
+ * Java Flight Recorder events for the snapshot pipeline.
+ *
+ * Every event carries the snapshot and the node that emitted it, and the channel
+ * where one is involved, given as the id of the node at its other end. Events are
+ * only filled in and committed while a recording has them enabled, so they cost
+ * next to nothing otherwise. Record with:
+ *
+ *  java -XX:StartFlightRecording=filename=node.jfr -cp build Node <config> <id>
+ */
+public final class SnapshotEvents {
+  private SnapshotEvents() {}
+
+  @Name("cs6378.SnapshotInitiated")
+  @Label("Snapshot Initiated")
+  @Category({"CS6378", "Snapshot"})
+  static class Initiated extends Event {
+    @Label("Snapshot") int snapshot;
+    @Label("Node") int node;
+    @Label("Engine") String engine;
+  }
+
+  @Name("cs6378.MarkerReceived")
+  @Label("Marker Received")
+  @Category({"CS6378", "Snapshot"})
+  @Description("A marker or Lai-Yang cut request arrived on an incoming channel")
+  static class MarkerReceived extends Event {
+    @Label("Snapshot") int snapshot;
+    @Label("Node") int node;
+    @Label("Channel") int channel;
+    @Label("Initiator") int initiator;
+  }
+
+  @Name("cs6378.ColorChange")
+  @Label("Color Change")
+  @Category({"CS6378", "Snapshot"})
+  @Description("Red once the local state is recorded, taking the time under the cut lock, " +
+    "Blue again once every incoming channel is recorded, taking the time spent Red")
+  static class ColorChange extends Event {
+    @Label("Snapshot") int snapshot;
+    @Label("Node") int node;
+    @Label("Channel") @Description("Channel of the marker that caused the change, -1 for the initiator") int channel;
+    @Label("Color") String color;
+    @Label("Elapsed") @Timespan(Timespan.NANOSECONDS) long elapsed;
+  }
+
+  @Name("cs6378.ReportSent")
+  @Label("Report Sent")
+  @Category({"CS6378", "Snapshot"})
+  static class ReportSent extends Event {
+    @Label("Snapshot") int snapshot;
+    @Label("Node") int node;
+    @Label("Channel") int channel;
+    @Label("Forwarded") @Description("Whether the report came from another node") boolean forwarded;
+    @Label("States") int states;
+  }
+
+  @Name("cs6378.SnapshotAssembled")
+  @Label("Snapshot Assembled")
+  @Category({"CS6378", "Snapshot"})
+  static class Assembled extends Event {
+    @Label("Snapshot") int snapshot;
+    @Label("Node") int node;
+    @Label("States") int states;
+    @Label("Collection") @Description("From initiating or the first report to the last report")
+    @Timespan(Timespan.NANOSECONDS) long collection;
+  }
+
+  @Name("cs6378.ConsistencyChecked")
+  @Label("Consistency Checked")
+  @Category({"CS6378", "Snapshot"})
+  static class ConsistencyChecked extends Event {
+    @Label("Snapshot") int snapshot;
+    @Label("Node") int node;
+    @Label("Consistent") boolean consistent;
+    @Label("Elapsed") @Timespan(Timespan.NANOSECONDS) long elapsed;
+  }
+
+  @Name("cs6378.TerminationDetected")
+  @Label("Termination Detected")
+  @Category({"CS6378", "Snapshot"})
+  static class TerminationDetected extends Event {
+    @Label("Snapshot") @Description("-1 when found by the Dijkstra-Scholten detector") int snapshot;
+    @Label("Node") int node;
+    @Label("Detector") String detector;
+  }
+
+  static void initiated(final int snapshot, final int node, final String engine) {
+    final Initiated event = new Initiated();
+    if (!event.isEnabled()) return;
+    event.snapshot = snapshot;
+    event.node = node;
+    event.engine = engine;
+    event.commit();
+  }
+
+  static void markerReceived(final int snapshot, final int node, final int channel, final int initiator) {
+    final MarkerReceived event = new MarkerReceived();
+    if (!event.isEnabled()) return;
+    event.snapshot = snapshot;
+    event.node = node;
+    event.channel = channel;
+    event.initiator = initiator;
+    event.commit();
+  }
+
+  static void colorChange(final int snapshot, final int node, final int channel, final String color, final long elapsed) {
+    final ColorChange event = new ColorChange();
+    if (!event.isEnabled()) return;
+    event.snapshot = snapshot;
+    event.node = node;
+    event.channel = channel;
+    event.color = color;
+    event.elapsed = elapsed;
+    event.commit();
+  }
+
+  static void reportSent(final Message.Snapshot report, final int node, final int channel, final boolean forwarded) {
+    final ReportSent event = new ReportSent();
+    if (!event.isEnabled()) return;
+    event.snapshot = report.getSnapshot();
+    event.node = node;
+    event.channel = channel;
+    event.forwarded = forwarded;
+    event.states = report.size();
+    event.commit();
+  }
+
+  static void assembled(final GlobalState globalState, final int node) {
+    final Assembled event = new Assembled();
+    if (!event.isEnabled()) return;
+    event.snapshot = globalState.getSnapshot();
+    event.node = node;
+    event.states = globalState.getLocalStates().size();
+    event.collection = System.nanoTime() - globalState.getStarted();
+    event.commit();
+  }
+
+  static void consistencyChecked(final int snapshot, final int node, final boolean consistent, final long elapsed) {
+    final ConsistencyChecked event = new ConsistencyChecked();
+    if (!event.isEnabled()) return;
+    event.snapshot = snapshot;
+    event.node = node;
+    event.consistent = consistent;
+    event.elapsed = elapsed;
+    event.commit();
+  }
+
+  static void terminationDetected(final int snapshot, final int node, final String detector) {
+    final TerminationDetected event = new TerminationDetected();
+    if (!event.isEnabled()) return;
+    event.snapshot = snapshot;
+    event.node = node;
+    event.detector = detector;
+    event.commit();
+  }
+}
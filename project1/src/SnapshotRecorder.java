@@ -0,0 +1,289 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Supplier;
+
+
+/**
+ * Chandy-Lamport bookkeeping for a single snapshot at a single node.
+ *
+ * Channels are tracked independently with per-channel recording and marker flags
+ * plus a counter of markers still expected, so markers and application messages
+ * on different channels are processed in parallel.
+ *
+ * Every snapshot gets its own recorder, see SnapshotRegistry, which also owns the
+ * cut lock that keeps application events on one side of each recorded local state.
+ *
+ * Channels are recorded either in full, one ChannelState with a cloned clock per
+ * message in transit, or as counts with the clocks of at most the first few messages.
+ * In full, a channel keeps at most spillThreshold states on the heap and appends the
+ * rest to a ChannelSpill. Only one reader thread receives on each channel, so the
+ * per-channel samples and spills need no locking of their own.
+ */
+public class SnapshotRecorder {
+  private final int snapshot;
+  private final int[] neighbors;
+
+  // indexed by node id, 1 while the incoming channel from that node is recorded
+  private final AtomicIntegerArray recording;
+  // indexed by node id, 1 while a marker is still owed on the outgoing channel
+  private final AtomicIntegerArray markerPending;
+  private final AtomicInteger remainingMarkers = new AtomicInteger();
+  private final AtomicInteger owedMarkers = new AtomicInteger();
+  private final Queue<ChannelState> channelStates = new ConcurrentLinkedQueue<>();
+  // indexed by node id, messages recorded in transit on each channel
+  private final AtomicIntegerArray counts;
+  // count-only recording, indexed by node id: the first clocks in transit
+  private final boolean countOnly;
+  private final int samples;
+  private final int[][][] sampled;
+  // full recording, indexed by node id: states past the in-memory limit
+  private final int spillThreshold;
+  private final File spillDirectory;
+  private final ChannelSpill[] spills;
+  // convergecast: neighbors that picked this node as their parent, and their reports
+  private final AtomicInteger children = new AtomicInteger();
+  private final Queue<Message.Snapshot> reports = new ConcurrentLinkedQueue<>();
+  private boolean collected = false;
+  // initiators whose marker waves reached this node, our own region first
+  private final Set<Integer> waves = ConcurrentHashMap.newKeySet();
+
+  private volatile Color color = Color.Blue;
+  private volatile LocalState localState;
+  // System.nanoTime() when the node turned Red
+  private volatile long redSince;
+  // resolves to the parent of the node for snapshot messages
+  private volatile int forwarder = -1;
+  // initiator of the wave that recorded this node
+  private volatile int region = -1;
+
+  public SnapshotRecorder(
+    final int snapshot,
+    final int nodes,
+    final int[] neighbors,
+    final boolean countOnly,
+    final int samples,
+    final int spillThreshold,
+    final File spillDirectory
+  ) {
+    this.snapshot = snapshot;
+    this.neighbors = neighbors;
+    this.recording = new AtomicIntegerArray(nodes);
+    this.markerPending = new AtomicIntegerArray(nodes);
+    this.countOnly = countOnly;
+    this.samples = samples;
+    this.counts = new AtomicIntegerArray(nodes);
+    this.sampled = countOnly ? new int[nodes][][] : null;
+    this.spillThreshold = spillThreshold;
+    this.spillDirectory = spillDirectory;
+    this.spills = countOnly ? null : new ChannelSpill[nodes];
+  }
+
+  /**
+   * Transition from Blue to Red, recording the local state and starting to
+   * record every incoming channel. Returns false if the node was already Red.
+   * Must be called with the cut lock held exclusively.
+   */
+  public boolean record(final int region, final int forwarder, final Supplier<LocalState> state) {
+    if (color.equals(Color.Red)) return false;
+    // remember who send the initial message
+    this.forwarder = forwarder;
+    this.region = region;
+    this.localState = state.get();
+    this.redSince = System.nanoTime();
+    waves.add(region);
+    remainingMarkers.set(neighbors.length);
+    owedMarkers.set(neighbors.length);
+    for (int neighbor : neighbors) {
+      recording.set(neighbor, 1);
+      markerPending.set(neighbor, 1);
+    }
+    color = Color.Red;
+    return true;
+  }
+
+  /**
+   * Claim the marker owed on the outgoing channel to a neighbor.
+   * Must be called with the send lock of that channel held, and only the
+   * caller that gets true may write the marker.
+   */
+  public boolean takeMarker(final int neighbor) {
+    if (!markerPending.compareAndSet(neighbor, 1, 0)) return false;
+    owedMarkers.decrementAndGet();
+    return true;
+  }
+
+  /**
+   * Record an application message as in transit if its channel is still being recorded.
+   *
+   * This is what is making use of FIFO ordering to get all of the events which
+   * were in transmission since before the marker had been received.
+   */
+  public void recordMessage(final int source, final int destination, final int[] clock) {
+    if (color.equals(Color.Red) && recording.get(source) == 1) {
+      final int count = counts.incrementAndGet(source);
+      if (!countOnly) {
+        if (count <= spillThreshold) {
+          channelStates.add(new ChannelState(source, destination, clock));
+        } else {
+          if (spills[source] == null) spills[source] = newSpill(source);
+          spills[source].append(clock);
+        }
+      } else if (count <= samples) {
+        if (sampled[source] == null) sampled[source] = new int[samples][];
+        sampled[source][count - 1] = clock.clone();
+      }
+    }
+  }
+
+  /**
+   * Mark the incoming channel from a neighbor as recorded, also counting the
+   * neighbor as a child in the snapshot tree if it chose this node as its parent,
+   * and noting the wave it belongs to when it differs from ours.
+   * Returns true for the marker that completes the local recording.
+   *
+   * Every child is known by the time the local recording completes, since its
+   * marker is one of those awaited.
+   */
+  public boolean markerReceived(final int source, final boolean fromChild, final int wave) {
+    if (recording.compareAndSet(source, 1, 0)) {
+      if (fromChild) children.incrementAndGet();
+      waves.add(wave);
+      return remainingMarkers.decrementAndGet() == 0;
+    }
+    return false;
+  }
+
+  /**
+   * Hold on to a child's report until the node can aggregate
+   */
+  public void addReport(final Message.Snapshot report) {
+    reports.add(report);
+  }
+
+  /**
+   * Hand out the children's reports exactly once, as soon as the local
+   * recording is complete and every child has reported, or null before that
+   */
+  public synchronized List<Message.Snapshot> collectReports() {
+    if (collected || !isComplete() || reports.size() < children.get()) return null;
+    collected = true;
+    return new ArrayList<>(reports);
+  }
+
+  /**
+   * Whether the local state and every incoming channel have been recorded
+   */
+  public boolean isComplete() {
+    return color.equals(Color.Red) && remainingMarkers.get() == 0;
+  }
+
+  /**
+   * Whether every marker of this snapshot has been claimed, so no later
+   * application send needs to check this recorder anymore
+   */
+  public boolean isSettled() {
+    return isComplete() && owedMarkers.get() == 0;
+  }
+
+  /**
+   * Drop the recorded state once it has been reported. The node stays Red,
+   * so late markers of the same snapshot cannot record it a second time
+   */
+  public void release() {
+    localState = null;
+    channelStates.clear();
+    if (countOnly) {
+      Arrays.fill(sampled, null);
+    } else {
+      for (int i = 0; i < spills.length; i++) {
+        if (spills[i] != null) spills[i].delete();
+        spills[i] = null;
+      }
+    }
+    reports.clear();
+  }
+
+  public int getSnapshot() {
+    return snapshot;
+  }
+
+  public LocalState getLocalState() {
+    return localState;
+  }
+
+  public List<ChannelState> getChannelStates() {
+    return new ArrayList<>(channelStates);
+  }
+
+  /**
+   * Compact state of every non-empty incoming channel when counting, or of the
+   * spilled part of every channel that outgrew its limit when recording in full
+   */
+  public List<ChannelSummary> getChannelSummaries(final int destination) {
+    final List<ChannelSummary> summaries = new ArrayList<>();
+    for (int neighbor : neighbors) {
+      if (!countOnly) {
+        if (spills[neighbor] != null) {
+          // the summary takes the spill over, release() leaves it alone
+          summaries.add(new ChannelSummary(neighbor, destination, spills[neighbor]));
+          spills[neighbor] = null;
+        }
+        continue;
+      }
+      final int count = counts.get(neighbor);
+      if (count > 0) {
+        final int kept = Math.min(count, samples);
+        final int width = recording.length();
+        final int[] clocks = new int[kept * width];
+        for (int i = 0; i < kept; i++) {
+          System.arraycopy(sampled[neighbor][i], 0, clocks, i * width, width);
+        }
+        summaries.add(new ChannelSummary(neighbor, destination, count, width, clocks));
+      }
+    }
+    return summaries;
+  }
+
+  /**
+   * Number of messages recorded in transit on every incoming channel
+   */
+  public int getInTransit() {
+    int inTransit = 0;
+    for (int neighbor : neighbors) {
+      inTransit += counts.get(neighbor);
+    }
+    return inTransit;
+  }
+
+  private ChannelSpill newSpill(final int source) {
+    // released recorders delete their spills, the node releases the ones still open once it halted
+    return ChannelSpill.create(spillDirectory, "snapshot-" + snapshot + "-from-" + source + "-", recording.length());
+  }
+
+  public long getRedSince() {
+    return redSince;
+  }
+
+  public int getForwarder() {
+    return forwarder;
+  }
+
+  public int getRegion() {
+    return region;
+  }
+
+  public Set<Integer> getWaves() {
+    return new TreeSet<>(waves);
+  }
+
+  private enum Color { Blue, Red }
+}
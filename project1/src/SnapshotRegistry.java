@@ -0,0 +1,135 @@
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+
+/**
+ * Recording state of every snapshot a node takes part in, keyed by snapshot id.
+ *
+ * Snapshots overlap freely, so each one has its own SnapshotRecorder and markers
+ * of different snapshots never interfere. The only shared point is the cut lock:
+ * application events hold it shared, and recording a local state for any snapshot
+ * holds it exclusively, which keeps every event strictly on one side of every cut.
+ *
+ * Recorders that are done reporting are kept for a while, so reports still on their
+ * way up the tree can be forwarded and late markers do not start a second recording.
+ */
+public class SnapshotRegistry {
+  // finished snapshots kept around, far more than can be in flight at once
+  private static final int RETAINED_SNAPSHOTS = 64;
+
+  private final int nodes;
+  private final int[] neighbors;
+  private final boolean countOnly;
+  private final int samples;
+  private final int spillThreshold;
+  private final File spillDirectory;
+
+  private final ReentrantReadWriteLock cut = new ReentrantReadWriteLock();
+  private final Map<Integer, SnapshotRecorder> recorders = new ConcurrentHashMap<>();
+  // recorders still recording channels, walked on every application event
+  private final List<SnapshotRecorder> active = new CopyOnWriteArrayList<>();
+  // highest snapshot id seen so far, from our own initiations or from markers
+  private final AtomicInteger latest = new AtomicInteger(-1);
+
+  public SnapshotRegistry(
+    final int nodes,
+    final int[] neighbors,
+    final boolean countOnly,
+    final int samples,
+    final int spillThreshold,
+    final File spillDirectory
+  ) {
+    this.nodes = nodes;
+    this.neighbors = neighbors;
+    this.countOnly = countOnly;
+    this.samples = samples;
+    this.spillThreshold = spillThreshold;
+    this.spillDirectory = spillDirectory;
+  }
+
+  /**
+   * Lock held shared around every application send and receive, so none of
+   * them can interleave with the recording of a local state
+   */
+  public Lock eventLock() {
+    return cut.readLock();
+  }
+
+  /**
+   * Recorder of a snapshot, created on its first marker
+   */
+  public SnapshotRecorder get(final int snapshot) {
+    final SnapshotRecorder existing = recorders.get(snapshot);
+    if (existing != null) return existing;
+    final SnapshotRecorder recorder = recorders.computeIfAbsent(
+      snapshot, s -> new SnapshotRecorder(s, nodes, neighbors, countOnly, samples, spillThreshold, spillDirectory));
+    if (latest.accumulateAndGet(snapshot, Math::max) == snapshot) {
+      recorders.values().removeIf(r -> r.getSnapshot() <= snapshot - RETAINED_SNAPSHOTS && r.isSettled());
+    }
+    return recorder;
+  }
+
+  /**
+   * Recorder for a new snapshot initiated here, numbered after every snapshot
+   * seen so far. Initiators that start before seeing each other's markers pick
+   * the same id, and their waves merge into a single snapshot.
+   */
+  public SnapshotRecorder next() {
+    return get(latest.get() + 1);
+  }
+
+  /**
+   * Record the local state for a snapshot, see SnapshotRecorder.record.
+   * The recorder becomes active inside the cut, so every event after it is
+   * checked against its channels.
+   */
+  public boolean record(
+    final SnapshotRecorder recorder,
+    final int region,
+    final int forwarder,
+    final Supplier<LocalState> state
+  ) {
+    cut.writeLock().lock();
+    try {
+      if (!recorder.record(region, forwarder, state)) return false;
+      active.add(recorder);
+      return true;
+    } finally {
+      cut.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Stop walking a recorder on application events once its channels are all
+   * recorded and its markers are all out. Called by both the thread sending the
+   * markers and the one receiving the last marker, only one of them gets true.
+   */
+  public boolean settle(final SnapshotRecorder recorder) {
+    return recorder.isSettled() && active.remove(recorder);
+  }
+
+  public List<SnapshotRecorder> active() {
+    return active;
+  }
+
+  /**
+   * Release every recorder once the node halted, deleting the spills of the
+   * snapshots that never got reported. No event records into them afterwards.
+   */
+  public void release() {
+    cut.writeLock().lock();
+    try {
+      active.clear();
+      recorders.values().forEach(SnapshotRecorder::release);
+    } finally {
+      cut.writeLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Interval between the snapshots of an initiator.
+ *
+ * A fixed schedule always waits snapshotDelay. An adaptive one starts there and
+ * moves within [minSnapshotDelay, maxSnapshotDelay] after every snapshot that did
+ * not find termination: it doubles while most nodes are still active, since the
+ * next round is bound to be wasted as well, and halves once the computation is
+ * winding down, which is few active nodes and messages in transit or an event
+ * rate that dropped since the previous snapshot.
+ *
+ * Only START_NODE sees the results, so other initiators keep the initial interval.
+ * Not thread safe, the node calls it holding its collections.
+ */
+public class SnapshotScheduler {
+  // a round with at least this fraction of nodes active makes the interval grow
+  private static final double BUSY = 0.5;
+  // below this fraction of nodes active, with at most as many messages in transit, it shrinks
+  private static final double QUIET = 0.25;
+
+  private final boolean adaptive;
+  private final long minDelay;
+  private final long maxDelay;
+  private long delay;
+
+  // the previous snapshot, to compute the event rate from
+  private long lastEvents = -1;
+  private long lastStarted;
+  private double lastRate = -1;
+
+  // metrics over the whole run
+  private int rounds = 0;
+  private int wasted = 0;
+  private int aborted = 0;
+  private int intervals = 0;
+  private long totalDelay = 0;
+  private long shortestDelay = Long.MAX_VALUE;
+  private long longestDelay = 0;
+
+  public SnapshotScheduler(final Config config) {
+    this.adaptive = config.snapshotSchedule.equals("adaptive");
+    this.minDelay = config.minSnapshotDelay;
+    this.maxDelay = config.maxSnapshotDelay;
+    this.delay = config.snapshotDelay;
+  }
+
+  /**
+   * Interval to wait before the next snapshot, recorded as a chosen interval
+   */
+  public long nextDelay() {
+    intervals++;
+    totalDelay += delay;
+    shortestDelay = Math.min(shortestDelay, delay);
+    longestDelay = Math.max(longestDelay, delay);
+    return delay;
+  }
+
+  /**
+   * Adjust the interval to the result of a snapshot
+   */
+  public void observe(final GlobalState globalState, final boolean terminated) {
+    rounds++;
+    if (terminated) return;
+    wasted++;
+
+    final int nodes = globalState.getLocalStates().size();
+    final double active = (double) globalState.getActive() / nodes;
+    final int inTransit = globalState.getInTransit();
+    // every send, receive and recording ticks the own component of the node
+    long events = 0;
+    for (final LocalState localState : globalState.getLocalStates()) {
+      events += localState.getApplicationClock()[localState.getID()];
+    }
+    double rate = -1;
+    if (lastEvents != -1 && globalState.getStarted() > lastStarted) {
+      rate = (events - lastEvents) * 1e9 / (globalState.getStarted() - lastStarted);
+    }
+    final boolean slowing = rate >= 0 && lastRate >= 0 && rate < lastRate;
+    lastEvents = events;
+    lastStarted = globalState.getStarted();
+    lastRate = rate;
+
+    if (!adaptive) return;
+    if (active >= BUSY) {
+      delay = Math.min(maxDelay, delay * 2);
+    } else if ((active < QUIET && inTransit <= nodes * QUIET) || slowing) {
+      delay = Math.max(minDelay, delay / 2);
+    }
+  }
+
+  /**
+   * A snapshot was aborted as soon as it could not find termination, which
+   * leaves too few states to adjust the interval to
+   */
+  public void aborted() {
+    rounds++;
+    wasted++;
+    aborted++;
+  }
+
+  public int getRounds() {
+    return rounds;
+  }
+
+  /**
+   * Snapshots that did not find termination
+   */
+  public int getWasted() {
+    return wasted;
+  }
+
+  public long getDelay() {
+    return delay;
+  }
+
+  @Override
+  public String toString() {
+    return rounds + " snapshots, " + wasted + " wasted of which " + aborted + " aborted, intervals of " +
+      (intervals == 0 ? "-" : shortestDelay + "/" + totalDelay / intervals + "/" + longestDelay) + " ms min/avg/max";
+  }
+}
@@ -0,0 +1,247 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Binary history of every snapshot the collector outputs.
+ *
+ * Each node has an append-only file of fixed-width rows, one clock of n ints per
+ * snapshot, and a shared index maps a snapshot id to its row with one int slot per
+ * id. Snapshot ids have no gaps, so finding a clock is one read in the index and one
+ * in the node's file, and a whole cut is one read per node.
+ *
+ * Rows are numbered in output order when a snapshot is appended, and the writes
+ * happen on a single writer thread so the protocol never waits on the disk.
+ */
+public class SnapshotStore {
+  private final File directory;
+  private final String name;
+  private final int nodes;
+  private final int rowBytes;
+  private final FileChannel[] clocks;
+  private final FileChannel index;
+  // null for stores opened only to read
+  private final ExecutorService writer;
+  private int rows;
+
+  private SnapshotStore(final File directory, final String name, final int nodes, final boolean create) throws IOException {
+    this.directory = directory;
+    this.name = name;
+    this.nodes = nodes;
+    this.rowBytes = nodes * Integer.BYTES;
+    this.clocks = new FileChannel[nodes];
+    for (int i = 0; i < nodes; i++) {
+      clocks[i] = openFile(new File(directory, name + "-" + i + ".clocks"), create);
+    }
+    this.index = openFile(new File(directory, name + ".index"), create);
+    this.rows = (int) (clocks[0].size() / rowBytes);
+    this.writer = create ? Executors.newSingleThreadExecutor(r -> {
+      final Thread thread = new Thread(r, name + "-store");
+      thread.setDaemon(true);
+      return thread;
+    }) : null;
+  }
+
+  /**
+   * Start an empty history, replacing the one of a previous run
+   */
+  public static SnapshotStore create(final File directory, final String name, final int nodes) throws IOException {
+    return new SnapshotStore(directory, name, nodes, true);
+  }
+
+  /**
+   * Open an existing history for reading
+   */
+  public static SnapshotStore open(final File directory, final String name, final int nodes) throws IOException {
+    return new SnapshotStore(directory, name, nodes, false);
+  }
+
+  private static FileChannel openFile(final File file, final boolean create) throws IOException {
+    return create
+      ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+          StandardOpenOption.READ, StandardOpenOption.WRITE)
+      : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+  }
+
+  /**
+   * Queue the clocks of a complete snapshot for writing
+   */
+  public synchronized void append(final GlobalState globalState) {
+    final int row = rows++;
+    final int[][] cut = new int[nodes][];
+    for (int i = 0; i < nodes; i++) {
+      cut[i] = globalState.getLocalState(i).getApplicationClock();
+    }
+    final int snapshot = globalState.getSnapshot();
+    writer.execute(() -> {
+      try {
+        final ByteBuffer buffer = ByteBuffer.allocate(rowBytes);
+        for (int i = 0; i < nodes; i++) {
+          buffer.clear();
+          buffer.asIntBuffer().put(cut[i]);
+          writeFully(clocks[i], buffer, (long) row * rowBytes);
+        }
+        // rows are stored off by one so that an empty slot reads as absent
+        final ByteBuffer slot = ByteBuffer.allocate(Integer.BYTES).putInt(0, row + 1);
+        writeFully(index, slot, (long) snapshot * Integer.BYTES);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    });
+  }
+
+  private static void writeFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, position);
+      if (read < 0) throw new IOException("unexpected end of " + channel);
+      position += read;
+    }
+    buffer.flip();
+  }
+
+  /**
+   * Number of snapshots stored
+   */
+  public synchronized int getRows() {
+    return rows;
+  }
+
+  /**
+   * Row of a snapshot in output order, -1 if it was never stored
+   */
+  public int getRow(final int snapshot) {
+    try {
+      if ((long) (snapshot + 1) * Integer.BYTES > index.size()) return -1;
+      final ByteBuffer slot = ByteBuffer.allocate(Integer.BYTES);
+      readFully(index, slot, (long) snapshot * Integer.BYTES);
+      return slot.getInt() - 1;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Clock recorded by a node in a snapshot, null if the snapshot was never stored
+   */
+  public int[] getClock(final int node, final int snapshot) {
+    final int row = getRow(snapshot);
+    return row == -1 ? null : getClockAtRow(node, row);
+  }
+
+  /**
+   * Clock of every node in a snapshot, null if the snapshot was never stored
+   */
+  public int[][] getCut(final int snapshot) {
+    final int row = getRow(snapshot);
+    if (row == -1) return null;
+    final int[][] cut = new int[nodes][];
+    for (int i = 0; i < nodes; i++) {
+      cut[i] = getClockAtRow(i, row);
+    }
+    return cut;
+  }
+
+  private int[] getClockAtRow(final int node, final int row) {
+    try {
+      final ByteBuffer buffer = ByteBuffer.allocate(rowBytes);
+      readFully(clocks[node], buffer, (long) row * rowBytes);
+      final int[] clock = new int[nodes];
+      buffer.asIntBuffer().get(clock);
+      return clock;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Write the legacy text output, one `<name>-<node>.out` per node with a line of
+   * space separated clock values per snapshot, in output order
+   */
+  public void exportText() throws IOException {
+    final int stored = getRows();
+    for (int i = 0; i < nodes; i++) {
+      try (final BufferedWriter out = new BufferedWriter(new FileWriter(new File(directory, name + "-" + i + ".out")))) {
+        final StringBuilder line = new StringBuilder();
+        for (int row = 0; row < stored; row++) {
+          line.setLength(0);
+          for (int clockValue : getClockAtRow(i, row)) {
+            line.append(clockValue).append(' ');
+          }
+          out.write(line.append('\n').toString());
+        }
+      }
+    }
+  }
+
+  /**
+   * Finish the queued writes, after which nothing more can be appended
+   */
+  public void flush() {
+    if (writer == null) return;
+    writer.shutdown();
+    try {
+      writer.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Finish the queued writes and close every file
+   */
+  public void close() throws IOException {
+    flush();
+    for (final FileChannel channel : clocks) {
+      channel.close();
+    }
+    index.close();
+  }
+
+  /**
+   * Inspect the history of a config from the command line:
+   *  SnapshotStore <config> export
+   *  SnapshotStore <config> cut <snapshot>
+   *  SnapshotStore <config> clock <node> <snapshot>
+   */
+  public static void main(String[] args) throws Exception {
+    final File configFile = new File(args[0]);
+    final Config config = Config.fromFile(configFile);
+    final SnapshotStore store = open(
+      configFile.getAbsoluteFile().getParentFile(), Node.outputName(configFile), config.nodes);
+    switch (args[1]) {
+      case "export":
+        store.exportText();
+        break;
+      case "cut":
+        final int[][] cut = store.getCut(Integer.parseInt(args[2]));
+        if (cut == null) break;
+        for (int[] clock : cut) {
+          System.out.println(Arrays.toString(clock));
+        }
+        break;
+      case "clock":
+        final int[] clock = store.getClock(Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        System.out.println(Arrays.toString(clock));
+        break;
+      default:
+        System.err.println("usage: SnapshotStore <config> export | cut <snapshot> | clock <node> <snapshot>");
+    }
+    store.close();
+  }
+}
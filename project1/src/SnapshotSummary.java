@@ -0,0 +1,84 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+/**
+ * Partial termination and consistency result for the local states of a subtree,
+ * so reports can be folded together on their way up to the snapshot initiator.
+ *
+ * Consistency of a set of local states means !(e -> f) for every pair, which is
+ * V(e)[P(e)] > V(f)[P(e)]. Two disjoint consistent sets stay consistent together
+ * if every member's own component is still ahead of what the other set has seen
+ * of it, so each summary keeps the own component of its members and the highest
+ * value its members have seen of every component.
+ */
+public class SnapshotSummary implements Serializable {
+  // own component of each member, -1 for nodes outside the subtree
+  private final int[] own;
+  // highest value of each component seen by a member other than its owner
+  private final int[] maxSeen;
+  private boolean anyActive = false;
+  private int inTransit = 0;
+  private boolean consistent = true;
+
+  public SnapshotSummary(final int nodes) {
+    this.own = new int[nodes];
+    this.maxSeen = new int[nodes];
+    Arrays.fill(own, -1);
+    Arrays.fill(maxSeen, -1);
+  }
+
+  /**
+   * Summary of a single node's recorded state, with the messages in transit
+   * on its channels
+   */
+  public static SnapshotSummary of(final LocalState localState, final int inTransit) {
+    final int[] clock = localState.getApplicationClock();
+    final SnapshotSummary summary = new SnapshotSummary(clock.length);
+    for (int i = 0; i < clock.length; i++) {
+      if (i == localState.getID()) {
+        summary.own[i] = clock[i];
+      } else {
+        summary.maxSeen[i] = clock[i];
+      }
+    }
+    summary.anyActive = localState.getState().equals(Node.State.ACTIVE);
+    summary.inTransit = inTransit;
+    return summary;
+  }
+
+  /**
+   * Fold the summary of a disjoint subtree into this one
+   */
+  public void merge(final SnapshotSummary other) {
+    for (int i = 0; i < own.length; i++) {
+      // any cross pair with a happens-before relation breaks consistency
+      if (own[i] != -1 && own[i] <= other.maxSeen[i]) consistent = false;
+      if (other.own[i] != -1 && other.own[i] <= maxSeen[i]) consistent = false;
+      own[i] = Math.max(own[i], other.own[i]);
+      maxSeen[i] = Math.max(maxSeen[i], other.maxSeen[i]);
+    }
+    consistent = consistent && other.consistent;
+    anyActive = anyActive || other.anyActive;
+    inTransit += other.inTransit;
+  }
+
+  public int size() {
+    return own.length;
+  }
+
+  public boolean isConsistent() {
+    return consistent;
+  }
+
+  /**
+   * All nodes passive and all channels empty
+   */
+  public boolean isTerminated() {
+    return !anyActive && inTransit == 0;
+  }
+
+  public int getInTransit() {
+    return inTransit;
+  }
+}
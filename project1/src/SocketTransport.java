@@ -0,0 +1,172 @@
+import java.io.EOFException;
+import java.io.ObjectInputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.function.Consumer;
+
+
+/**
+ * Transport between processes, with a socket per edge.
+ *
+ * Lower neighbors dial in and identify themselves with a Hello, higher neighbors
+ * are dialed, so every edge ends up with exactly one socket. Each socket gets a
+ * reader for its incoming half and an OutboundChannel writer for the other one.
+ */
+public class SocketTransport implements Transport {
+  private static final long INITIAL_BACKOFF = 50;
+  private static final long MAX_BACKOFF = 1000;
+
+  private final int id;
+  private final Config config;
+  private ServerSocket welcomeSocket;
+  private NodeRuntime runtime;
+  private Consumer<Channel> connected;
+  private Consumer<Message> received;
+  private volatile boolean closed = false;
+
+  public SocketTransport(final int id, final Config config) {
+    this.id = id;
+    this.config = config;
+  }
+
+  @Override
+  public void connect(final NodeRuntime runtime, final Consumer<Channel> connected, final Consumer<Message> received) throws Exception {
+    this.runtime = runtime;
+    this.connected = connected;
+    this.received = received;
+    // open a listening socket for the server
+    welcomeSocket = new ServerSocket(config.topology.getListenPort(id));
+    // accept connections from lower neighbors on a reader of the runtime
+    runtime.read(this::acceptConnections);
+    // dial the higher neighbors, so every edge ends up with exactly one socket
+    for (int neighborIndex : config.topology.neighbors(id)) {
+      if (neighborIndex > id) {
+        runtime.read(() -> dial(neighborIndex));
+      }
+    }
+  }
+
+  /**
+   * Accept connections dialed by lower neighbors, which identify themselves with a Hello
+   */
+  private void acceptConnections() {
+    try {
+      while (true) {
+        // accept incoming socket connection requests
+        final Socket connectionSocket = welcomeSocket.accept();
+        // spawn a new handler for the accepted
+        runtime.read(() -> {
+          try {
+            final ObjectInputStream inputStream = new ObjectInputStream(connectionSocket.getInputStream());
+            final int neighborIndex = ((Message.Hello) inputStream.readObject()).getSource();
+            register(openChannel(neighborIndex, connectionSocket), inputStream);
+          } catch (Exception e) {
+            err("failed handshake on " + connectionSocket.getRemoteSocketAddress());
+            e.printStackTrace();
+            closeQuietly(connectionSocket);
+          }
+        });
+      }
+    } catch (Exception e) {
+      if (closed) return; // server socket closed while halting
+      err("failed to accept connections on " + welcomeSocket.getLocalPort());
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Connect to a higher neighbor, retrying with backoff until its server socket is up
+   */
+  private void dial(final int neighborIndex) {
+    final String hostName = config.topology.getHostName(neighborIndex);
+    final int listenPort = config.topology.getListenPort(neighborIndex);
+    long backoff = INITIAL_BACKOFF;
+    while (true) {
+      Socket socket = null;
+      OutboundChannel channel = null;
+      final ObjectInputStream inputStream;
+      try {
+        socket = new Socket(hostName, listenPort);
+        channel = openChannel(neighborIndex, socket);
+        // introduce ourselves before anything else crosses the edge,
+        // the accepting side only answers with its stream header after that
+        channel.send(new Message.Hello(id));
+        inputStream = new ObjectInputStream(socket.getInputStream());
+      } catch (Exception e) {
+        // a handshake that failed partway leaves no writer or socket behind
+        if (channel != null) {
+          channel.close();
+        } else {
+          closeQuietly(socket);
+        }
+        if (backoff == INITIAL_BACKOFF) {
+          err("failed to connect to node " + neighborIndex +
+            " at " + hostName +
+            " on port " + listenPort + ", retrying...");
+        }
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException interrupted) {
+          return;
+        }
+        backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        continue;
+      }
+      register(channel, inputStream);
+      return;
+    }
+  }
+
+  private OutboundChannel openChannel(final int neighborIndex, final Socket socket) throws Exception {
+    // writes are already batched by the writer, and credits and markers should not
+    // wait on the acknowledgement of the last write
+    socket.setTcpNoDelay(true);
+    final OutboundChannel channel = new OutboundChannel(neighborIndex, socket);
+    // every channel gets a dedicated writer draining its queue
+    runtime.read(channel::drain);
+    return channel;
+  }
+
+  /**
+   * Make a handshaken connection usable and become its reader
+   */
+  private void register(final OutboundChannel channel, final ObjectInputStream inputStream) {
+    connected.accept(channel);
+    readMessages(inputStream);
+  }
+
+  /**
+   * Reader loop for the incoming half of a channel
+   */
+  private void readMessages(final ObjectInputStream inputStream) {
+    while (true) {
+      try {
+        received.accept((Message) inputStream.readObject());
+      } catch (EOFException e) {
+        break; // this is fine to ignore
+      } catch (Exception e) {
+        if (closed) break; // socket closed while halting
+        e.printStackTrace();
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      welcomeSocket.close();
+    } catch (Exception e) { /* already closed */ }
+  }
+
+  private static void closeQuietly(final Socket socket) {
+    if (socket == null) return;
+    try {
+      socket.close();
+    } catch (Exception e) { /* already closed */ }
+  }
+
+  private void err(final String message) {
+    System.err.println("[" + id + "] " + message);
+  }
+}
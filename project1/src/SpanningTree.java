@@ -0,0 +1,82 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+
+/**
+ * Minimum-depth spanning tree for routing snapshot reports.
+ *
+ * Built by a breadth-first search over the neighbor lists in the Config, so every
+ * node computes the same tree at startup without exchanging any messages, and each
+ * node sits at its shortest distance from the root.
+ */
+public class SpanningTree {
+  private final int root;
+  private final int[] parent;
+  private final int[] depth;
+
+  private SpanningTree(final int root, final int[] parent, final int[] depth) {
+    this.root = root;
+    this.parent = parent;
+    this.depth = depth;
+  }
+
+  public static SpanningTree bfs(final Config config, final int root) {
+    final int[] parent = new int[config.nodes];
+    final int[] depth = new int[config.nodes];
+    Arrays.fill(parent, -1);
+    Arrays.fill(depth, -1);
+
+    final Queue<Integer> frontier = new ArrayDeque<>();
+    depth[root] = 0;
+    frontier.add(root);
+    while (!frontier.isEmpty()) {
+      final int node = frontier.poll();
+      // neighbors are visited in config order, which keeps the tree deterministic
+      for (int k = 0; k < config.topology.degree(node); k++) {
+        final int neighbor = config.topology.neighbor(node, k);
+        if (depth[neighbor] == -1) {
+          depth[neighbor] = depth[node] + 1;
+          parent[neighbor] = node;
+          frontier.add(neighbor);
+        }
+      }
+    }
+    return new SpanningTree(root, parent, depth);
+  }
+
+  public int getRoot() {
+    return root;
+  }
+
+  /**
+   * Parent of a node in the tree, -1 for the root
+   */
+  public int getParent(final int node) {
+    return parent[node];
+  }
+
+  /**
+   * Nodes whose parent is the given node
+   */
+  public List<Integer> getChildren(final int node) {
+    final List<Integer> children = new ArrayList<>();
+    for (int i = 0; i < parent.length; i++) {
+      if (parent[i] == node) children.add(i);
+    }
+    return children;
+  }
+
+  public int getDepth(final int node) {
+    return depth[node];
+  }
+
+  /**
+   * Depth of the deepest node
+   */
+  public int getHeight() {
+    return Arrays.stream(depth).max().orElse(0);
+  }
+}
@@ -0,0 +1,64 @@
+import java.io.Serializable;
+
+
+/**
+ * A node's LocalState for one snapshot, as the clock entries that changed since
+ * the state the node reported for an earlier snapshot (the base) plus its current
+ * PASSIVE/ACTIVE state. The collector keeps the base and rebuilds the full state.
+ */
+public class StateDelta implements Serializable {
+    private final int id;
+    private final int base;
+    private final int[] changedIndices;
+    private final int[] changedValues;
+    private final Node.State state;
+
+    private StateDelta(final int id, final int base, final int[] changedIndices, final int[] changedValues, final Node.State state) {
+        this.id = id;
+        this.base = base;
+        this.changedIndices = changedIndices;
+        this.changedValues = changedValues;
+        this.state = state;
+    }
+
+    /**
+     * Encode a state against the one reported for the base snapshot
+     */
+    public static StateDelta of(final int base, final LocalState previous, final LocalState current) {
+        final int[] before = previous.getApplicationClock();
+        final int[] after = current.getApplicationClock();
+        int changes = 0;
+        for (int i = 0; i < after.length; i++) {
+            if (after[i] != before[i]) changes++;
+        }
+        final int[] changedIndices = new int[changes];
+        final int[] changedValues = new int[changes];
+        for (int i = 0, c = 0; c < changes; i++) {
+            if (after[i] != before[i]) {
+                changedIndices[c] = i;
+                changedValues[c] = after[i];
+                c++;
+            }
+        }
+        return new StateDelta(current.getID(), base, changedIndices, changedValues, current.getState());
+    }
+
+    /**
+     * Rebuild the full state from the one reported for the base snapshot
+     */
+    public LocalState apply(final LocalState previous) {
+        final int[] clock = previous.getApplicationClock().clone();
+        for (int c = 0; c < changedIndices.length; c++) {
+            clock[changedIndices[c]] = changedValues[c];
+        }
+        return new LocalState(id, clock, state);
+    }
+
+    public int getID() {
+        return id;
+    }
+
+    public int getBase() {
+        return base;
+    }
+}
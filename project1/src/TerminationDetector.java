@@ -0,0 +1,62 @@
+/**
+ * Dijkstra-Scholten termination detection for the diffusing computation started by
+ * the root, which is the only node active at startup.
+ *
+ * Every node counts the Application messages it sent that are not signaled yet as
+ * its deficit. The first message that reaches a node outside the tree engages it,
+ * with the sender as its parent, and every other message is signaled right away.
+ * A passive node without deficit leaves the tree by signaling its parent, so the
+ * tree only ever shrinks from the leaves and the computation has terminated once
+ * the root is passive without deficit.
+ *
+ * The node holds the monitor of the detector around its state changes and the
+ * checks below, so a node can never leave the tree while it is becoming active.
+ */
+public class TerminationDetector {
+  // Application messages sent and not signaled yet
+  private int deficit = 0;
+  // node that engaged us, our own id at the root
+  private int parent;
+  private boolean engaged;
+
+  public TerminationDetector(final int id, final boolean root) {
+    this.engaged = root;
+    this.parent = root ? id : -1;
+  }
+
+  /**
+   * Count an Application message before it is queued
+   */
+  public synchronized void sent() {
+    deficit++;
+  }
+
+  /**
+   * Take in an Application message, returning the node to signal right away,
+   * or -1 if the message engaged this node and its signal waits until we leave
+   */
+  public synchronized int received(final int source) {
+    if (engaged) return source;
+    engaged = true;
+    parent = source;
+    return -1;
+  }
+
+  /**
+   * One of our messages has been signaled back
+   */
+  public synchronized void signaled() {
+    deficit--;
+  }
+
+  /**
+   * Leave the tree if the node is passive and every message has been signaled.
+   * Returns the parent to signal, our own id when the root detects termination,
+   * or -1 while the node has to stay engaged.
+   */
+  public synchronized int detach(final boolean passive) {
+    if (!engaged || !passive || deficit > 0) return -1;
+    engaged = false;
+    return parent;
+  }
+}
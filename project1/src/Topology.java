@@ -0,0 +1,53 @@
+import java.util.Arrays;
+
+
+/**
+ * Hosts, ports and neighbor lists of every node of a config, in compressed sparse
+ * row form: the neighbors of node i are adjacency[offsets[i]] up to
+ * adjacency[offsets[i + 1]], in config order. This is two ints per edge and one
+ * per node, so a process can keep the whole topology of large configs while only
+ * building the Node it runs.
+ */
+public class Topology {
+  private final String[] hostNames;
+  private final int[] listenPorts;
+  private final int[] offsets;
+  private final int[] adjacency;
+
+  public Topology(final String[] hostNames, final int[] listenPorts, final int[] offsets, final int[] adjacency) {
+    this.hostNames = hostNames;
+    this.listenPorts = listenPorts;
+    this.offsets = offsets;
+    this.adjacency = adjacency;
+  }
+
+  public int size() {
+    return listenPorts.length;
+  }
+
+  public int degree(final int node) {
+    return offsets[node + 1] - offsets[node];
+  }
+
+  /**
+   * The k-th neighbor of a node in config order
+   */
+  public int neighbor(final int node, final int k) {
+    return adjacency[offsets[node] + k];
+  }
+
+  /**
+   * Copy of the neighbors of a node in config order
+   */
+  public int[] neighbors(final int node) {
+    return Arrays.copyOfRange(adjacency, offsets[node], offsets[node + 1]);
+  }
+
+  public String getHostName(final int node) {
+    return hostNames[node];
+  }
+
+  public int getListenPort(final int node) {
+    return listenPorts[node];
+  }
+}
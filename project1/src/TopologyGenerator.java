@@ -0,0 +1,196 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+
+/**
+ * Writes config files with generated topologies.
+ *
+ *  java -cp build TopologyGenerator <kind> <nodes> [degree] [seed] [output] [host] [basePort]
+ *
+ * with kind one of
+ *  random      a ring plus random edges up to an average degree of `degree`
+ *  ring        every node linked to the `degree` / 2 nodes on each side
+ *  grid        a near square grid, linked to the nodes above, below and on each side
+ *  smallWorld  Watts-Strogatz, a ring of `degree` with the edges beyond the
+ *              first neighbors rewired to random nodes with probability REWIRING
+ *  scaleFree   Barabasi-Albert, each node links to `degree` / 2 earlier nodes
+ *              picked by their degree
+ *
+ * Every topology is undirected and connected. Nodes listen on `host` at
+ * `basePort` + id, and the global parameters are those of config.txt, to be
+ * edited to taste. The config goes to stdout unless an output file is given.
+ */
+public class TopologyGenerator {
+  private static final double REWIRING = 0.1;
+  private static final String PARAMETERS = "6 10 100 2000 15";
+
+  private final int nodes;
+  private final Random random;
+  private final Set<Long> edges = new HashSet<>();
+
+  private TopologyGenerator(final int nodes, final long seed) {
+    this.nodes = nodes;
+    this.random = new Random(seed);
+  }
+
+  public static void main(String[] args) throws IOException {
+    final String kind = args[0];
+    final int nodes = Integer.parseInt(args[1]);
+    final int degree = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+    final long seed = args.length > 3 ? Long.parseLong(args[3]) : 6378;
+    final String host = args.length > 5 ? args[5] : "localhost";
+    final int basePort = args.length > 6 ? Integer.parseInt(args[6]) : 20000;
+    if (nodes < 2) throw new IllegalArgumentException("a topology needs at least 2 nodes");
+    if (basePort + nodes > 65536) throw new IllegalArgumentException("not enough ports above " + basePort + " for " + nodes + " nodes");
+
+    final TopologyGenerator generator = new TopologyGenerator(nodes, seed);
+    switch (kind) {
+      case "random":
+        generator.random(degree);
+        break;
+      case "ring":
+        generator.ring(degree);
+        break;
+      case "grid":
+        generator.grid();
+        break;
+      case "smallWorld":
+        generator.smallWorld(degree);
+        break;
+      case "scaleFree":
+        generator.scaleFree(degree);
+        break;
+      default:
+        throw new IllegalArgumentException("unknown topology " + kind);
+    }
+
+    try (final Writer writer = args.length > 4 && !args[4].equals("-")
+      ? new FileWriter(args[4])
+      : new OutputStreamWriter(System.out)) {
+      generator.write(new PrintWriter(new BufferedWriter(writer, 1 << 16)), kind, host, basePort);
+    }
+  }
+
+  private void random(final int degree) {
+    ring(2);
+    final long target = Math.max(edges.size(), (long) nodes * degree / 2);
+    final long possible = (long) nodes * (nodes - 1) / 2;
+    while (edges.size() < Math.min(target, possible)) {
+      link(random.nextInt(nodes), random.nextInt(nodes));
+    }
+  }
+
+  private void ring(final int degree) {
+    for (int i = 0; i < nodes; i++) {
+      for (int step = 1; step <= Math.max(1, degree / 2); step++) {
+        link(i, (i + step) % nodes);
+      }
+    }
+  }
+
+  private void grid() {
+    final int width = (int) Math.ceil(Math.sqrt(nodes));
+    for (int i = 0; i < nodes; i++) {
+      if (i % width != width - 1 && i + 1 < nodes) link(i, i + 1);
+      if (i + width < nodes) link(i, i + width);
+    }
+  }
+
+  private void smallWorld(final int degree) {
+    for (int i = 0; i < nodes; i++) {
+      // the first neighbors on the ring stay, which keeps the topology connected
+      link(i, (i + 1) % nodes);
+      for (int step = 2; step <= degree / 2; step++) {
+        boolean rewired = false;
+        if (random.nextDouble() < REWIRING) {
+          // try a few random ends before keeping the ring edge
+          for (int attempt = 0; attempt < 8 && !rewired; attempt++) {
+            rewired = link(i, random.nextInt(nodes));
+          }
+        }
+        if (!rewired) link(i, (i + step) % nodes);
+      }
+    }
+  }
+
+  private void scaleFree(final int degree) {
+    final int attach = Math.max(1, degree / 2);
+    // every edge puts both of its ends here, so picking an entry picks a node by its degree
+    int[] ends = new int[16];
+    int size = 0;
+    final int seedNodes = Math.min(nodes, attach + 1);
+    for (int i = 0; i < seedNodes; i++) {
+      for (int j = i + 1; j < seedNodes; j++) {
+        link(i, j);
+        if (size + 2 > ends.length) ends = Arrays.copyOf(ends, ends.length * 2);
+        ends[size++] = i;
+        ends[size++] = j;
+      }
+    }
+    for (int i = seedNodes; i < nodes; i++) {
+      int linked = 0;
+      while (linked < Math.min(attach, i)) {
+        final int target = ends[random.nextInt(size)];
+        if (!link(i, target)) continue;
+        linked++;
+        if (size + 2 > ends.length) ends = Arrays.copyOf(ends, ends.length * 2);
+        ends[size++] = i;
+        ends[size++] = target;
+      }
+    }
+  }
+
+  /**
+   * Add an undirected edge, returning false for loops and edges already there
+   */
+  private boolean link(final int a, final int b) {
+    if (a == b) return false;
+    return edges.add((long) Math.min(a, b) << 32 | Math.max(a, b));
+  }
+
+  /**
+   * Write the config, with the neighbors of every node in ascending order
+   */
+  private void write(final PrintWriter out, final String kind, final String host, final int basePort) {
+    final int[] offsets = new int[nodes + 1];
+    for (final long edge : edges) {
+      offsets[(int) (edge >>> 32) + 1]++;
+      offsets[(int) edge + 1]++;
+    }
+    for (int i = 0; i < nodes; i++) {
+      offsets[i + 1] += offsets[i];
+    }
+    final int[] adjacency = new int[offsets[nodes]];
+    final int[] filled = Arrays.copyOf(offsets, nodes);
+    for (final long edge : edges) {
+      final int a = (int) (edge >>> 32);
+      final int b = (int) edge;
+      adjacency[filled[a]++] = b;
+      adjacency[filled[b]++] = a;
+    }
+
+    out.println("# " + kind + " topology of " + nodes + " nodes and " + edges.size() + " edges");
+    out.println(nodes + " " + PARAMETERS);
+    for (int i = 0; i < nodes; i++) {
+      out.println(i + " " + host + " " + (basePort + i));
+    }
+    for (int i = 0; i < nodes; i++) {
+      Arrays.sort(adjacency, offsets[i], offsets[i + 1]);
+      final StringBuilder line = new StringBuilder();
+      for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+        if (k > offsets[i]) line.append(' ');
+        line.append(adjacency[k]);
+      }
+      out.println(line);
+    }
+    out.flush();
+  }
+}
@@ -0,0 +1,256 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+
+/**
+ * Records every message a node sends or receives to a binary trace, as a
+ * Transport wrapped around the one the node would use otherwise.
+ *
+ * The trace starts with MAGIC, the node id and the number of nodes, followed by one
+ * record per message:
+ *  byte   op, the message type in the low bits and RECEIVE in the high bit
+ *  int    local sequence number, counting every record of the node
+ *  int    source and int destination. The source of a received message is the
+ *         node that created it, which for forwarded reports is not the neighbor
+ *  then for Application messages the epoch and the clock as an int count of
+ *  (index, value) pairs. A full clock only has the entries that changed since the
+ *  last clock the node sent, or since the last clock it received from the same
+ *  neighbor, starting from zeros, while a differential clock has a negative count
+ *  of the pairs it carried.
+ *  Markers, cuts and reports end with the snapshot.
+ *
+ * Records are written in the order the messages were queued or handed to the node.
+ */
+public class TraceRecorder implements Transport {
+  static final int MAGIC = 0x54524332;
+  static final int RECEIVE = 0x80;
+  static final int APPLICATION = 0;
+  static final int MARKER = 1;
+  static final int SNAPSHOT = 2;
+  static final int CUT = 3;
+  static final int SIGNAL = 4;
+  static final int READY = 5;
+  static final int HALT = 6;
+  static final int HELLO = 7;
+  static final int CREDIT = 8;
+
+  private final Transport transport;
+  private final int id;
+  private final DataOutputStream out;
+  // last full clock sent, and last full clock received per neighbor
+  private int[] lastSent;
+  private final Map<Integer, int[]> lastReceived = new HashMap<>();
+  private int sequence = 0;
+  private boolean closed = false;
+
+  public TraceRecorder(final Transport transport, final File file, final int id, final int nodes) throws IOException {
+    this.transport = transport;
+    this.id = id;
+    this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    out.writeInt(MAGIC);
+    out.writeInt(id);
+    out.writeInt(nodes);
+  }
+
+  @Override
+  public void connect(final NodeRuntime runtime, final Consumer<Channel> connected, final Consumer<Message> received) throws Exception {
+    transport.connect(
+      runtime,
+      channel -> connected.accept(new TracedChannel(channel)),
+      message -> {
+        record(RECEIVE, message, id);
+        received.accept(message);
+      }
+    );
+  }
+
+  /**
+   * Flush the trace, messages sent while halting are not recorded anymore
+   */
+  @Override
+  public void close() {
+    transport.close();
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+      try {
+        out.close();
+      } catch (IOException e) {
+        System.err.println("[" + id + "] failed to write the trace: " + e.getMessage());
+      }
+    }
+  }
+
+  private synchronized void record(final int direction, final Message message, final int destination) {
+    if (closed) return;
+    try {
+      final int type = typeOf(message);
+      out.writeByte(direction | type);
+      out.writeInt(sequence++);
+      out.writeInt(message.getSource());
+      out.writeInt(destination);
+      if (type == APPLICATION) {
+        final Message.Application application = (Message.Application) message;
+        out.writeInt(application.getEpoch());
+        if (application.isDifferential()) {
+          out.writeInt(-application.getChangedIndices().length);
+          for (int c = 0; c < application.getChangedIndices().length; c++) {
+            out.writeInt(application.getChangedIndices()[c]);
+            out.writeInt(application.getChangedValues()[c]);
+          }
+        } else {
+          final int[] clock = application.getVectorClock();
+          if (lastSent == null) lastSent = new int[clock.length];
+          final int[] last = direction == RECEIVE
+            ? lastReceived.computeIfAbsent(message.getSource(), n -> new int[clock.length])
+            : lastSent;
+          int changed = 0;
+          for (int i = 0; i < clock.length; i++) {
+            if (clock[i] != last[i]) changed++;
+          }
+          out.writeInt(changed);
+          for (int i = 0; i < clock.length; i++) {
+            if (clock[i] == last[i]) continue;
+            out.writeInt(i);
+            out.writeInt(clock[i]);
+            last[i] = clock[i];
+          }
+        }
+      } else if (type == MARKER) {
+        out.writeInt(((Message.Marker) message).getSnapshot());
+      } else if (type == SNAPSHOT) {
+        out.writeInt(((Message.Snapshot) message).getSnapshot());
+      } else if (type == CUT) {
+        out.writeInt(((Message.Cut) message).getSnapshot());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static int typeOf(final Message message) {
+    if (message instanceof Message.Application) return APPLICATION;
+    if (message instanceof Message.Marker) return MARKER;
+    if (message instanceof Message.Snapshot) return SNAPSHOT;
+    if (message instanceof Message.Cut) return CUT;
+    if (message instanceof Message.Signal) return SIGNAL;
+    if (message instanceof Message.Ready) return READY;
+    if (message instanceof Message.Halt) return HALT;
+    if (message instanceof Message.Credit) return CREDIT;
+    return HELLO;
+  }
+
+  /**
+   * Channel that records every message before queueing it, under the recorder's
+   * lock so the trace has the sends of each channel in the order they were queued
+   */
+  private class TracedChannel implements Channel {
+    private final Channel channel;
+
+    TracedChannel(final Channel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public int getNeighbor() {
+      return channel.getNeighbor();
+    }
+
+    @Override
+    public void send(final Message message) {
+      synchronized (TraceRecorder.this) {
+        record(0, message, channel.getNeighbor());
+        channel.send(message);
+      }
+    }
+
+    @Override
+    public int depth() {
+      return channel.depth();
+    }
+
+    @Override
+    public void close(final Message farewell) {
+      channel.close(farewell);
+    }
+  }
+
+  /**
+   * One record of a trace
+   */
+  static class Record {
+    boolean received;
+    int type;
+    int sequence;
+    int source;
+    int destination;
+    // Application messages only, changedIndices is null for full clocks
+    int epoch;
+    int[] clock;
+    int[] changedIndices;
+    // markers, cuts and reports only
+    int snapshot;
+  }
+
+  /**
+   * Stream the records of a trace in order, returning the id of its node
+   */
+  static int read(final File file, final Consumer<Record> records) throws IOException {
+    try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+      if (in.readInt() != MAGIC) throw new IOException(file + " is not a trace");
+      final int node = in.readInt();
+      final int nodes = in.readInt();
+      final int[] lastSent = new int[nodes];
+      final Map<Integer, int[]> lastReceived = new HashMap<>();
+      while (true) {
+        final int op;
+        try {
+          op = in.readUnsignedByte();
+        } catch (EOFException e) {
+          return node;
+        }
+        final Record record = new Record();
+        record.received = (op & RECEIVE) != 0;
+        record.type = op & ~RECEIVE;
+        record.sequence = in.readInt();
+        record.source = in.readInt();
+        record.destination = in.readInt();
+        if (record.type == APPLICATION) {
+          record.epoch = in.readInt();
+          final int count = in.readInt();
+          if (count < 0) {
+            record.changedIndices = new int[-count];
+            record.clock = new int[-count];
+            for (int c = 0; c < -count; c++) {
+              record.changedIndices[c] = in.readInt();
+              record.clock[c] = in.readInt();
+            }
+          } else {
+            final int[] last = record.received
+              ? lastReceived.computeIfAbsent(record.source, n -> new int[nodes])
+              : lastSent;
+            for (int c = 0; c < count; c++) {
+              final int index = in.readInt();
+              last[index] = in.readInt();
+            }
+            record.clock = last.clone();
+          }
+        } else if (record.type == MARKER || record.type == SNAPSHOT || record.type == CUT) {
+          record.snapshot = in.readInt();
+        }
+        records.accept(record);
+      }
+    }
+  }
+}
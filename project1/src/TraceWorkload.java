@@ -0,0 +1,84 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Replays the Application messages a node sent in a trace, to the same neighbors
+ * and in the same order.
+ *
+ * Every send waits until the node has received as many Application messages as it
+ * had when it sent it in the trace, so the computation keeps the causal structure
+ * of the traced run whatever else changes. The traced run is one order in which all
+ * of these sends were possible, so the replay never gets stuck. A node whose next
+ * send still waits on a receive stays PASSIVE, as it only sends again after one.
+ *
+ * Used from the single thread of a Replay, so it needs no locking.
+ */
+public class TraceWorkload implements Workload {
+  private final int[] targets;
+  // Application messages received before each send in the trace
+  private final int[] gates;
+  private final long delay;
+  private int next = 0;
+  private int received = 0;
+
+  private TraceWorkload(final int[] targets, final int[] gates, final long delay) {
+    this.targets = targets;
+    this.gates = gates;
+    this.delay = delay;
+  }
+
+  /**
+   * The sends of the node in a trace, paced delay nanoseconds apart
+   */
+  public static TraceWorkload fromTrace(final File trace, final long delay) throws IOException {
+    final List<Integer> targets = new ArrayList<>();
+    final List<Integer> gates = new ArrayList<>();
+    final int[] received = new int[1];
+    TraceRecorder.read(trace, record -> {
+      if (record.type != TraceRecorder.APPLICATION) return;
+      if (record.received) {
+        received[0]++;
+      } else {
+        targets.add(record.destination);
+        gates.add(received[0]);
+      }
+    });
+    return new TraceWorkload(
+      targets.stream().mapToInt(Integer::intValue).toArray(),
+      gates.stream().mapToInt(Integer::intValue).toArray(),
+      delay
+    );
+  }
+
+  @Override
+  public int messageLimit() {
+    return targets.length;
+  }
+
+  @Override
+  public int activation() {
+    return isEnabled() ? targets.length - next : 0;
+  }
+
+  @Override
+  public int nextTarget() {
+    return isEnabled() ? targets[next++] : -1;
+  }
+
+  @Override
+  public long nextDelay() {
+    return delay;
+  }
+
+  @Override
+  public void received(final int source) {
+    received++;
+  }
+
+  private boolean isEnabled() {
+    return next < targets.length && gates[next] <= received;
+  }
+}
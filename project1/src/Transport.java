@@ -0,0 +1,23 @@
+import java.util.function.Consumer;
+
+
+/**
+ * How a node reaches its neighbors, over sockets between processes or in
+ * memory between nodes of the same JVM.
+ */
+public interface Transport {
+  /**
+   * Start connecting to every neighbor, on readers of the runtime.
+   *
+   * Every channel is handed to connected once messages can be sent on it, and
+   * every incoming message to received. Each incoming channel is only ever read
+   * by one thread at a time, so messages of a channel are received one at a time
+   * and in the order they were sent.
+   */
+  void connect(NodeRuntime runtime, Consumer<Channel> connected, Consumer<Message> received) throws Exception;
+
+  /**
+   * Stop taking in connections and messages, called first thing when the node halts
+   */
+  void close();
+}
@@ -0,0 +1,37 @@
+import java.util.Random;
+
+
+/**
+ * The MAP workload of the config: between minPerActive and maxPerActive messages
+ * per activation, each to a neighbor picked uniformly at random, minSendDelay apart.
+ */
+public class UniformWorkload implements Workload {
+  protected final Config config;
+  protected final int[] neighbors;
+  protected final Random random = new Random();
+
+  public UniformWorkload(final Config config, final int[] neighbors) {
+    this.config = config;
+    this.neighbors = neighbors;
+  }
+
+  @Override
+  public int messageLimit() {
+    return config.maxNumber;
+  }
+
+  @Override
+  public int activation() {
+    return random.nextInt(config.maxPerActive - config.minPerActive + 1) + config.minPerActive;
+  }
+
+  @Override
+  public int nextTarget() {
+    return neighbors[random.nextInt(neighbors.length)];
+  }
+
+  @Override
+  public long nextDelay() {
+    return config.minSendDelay * 1_000_000L;
+  }
+}
@@ -0,0 +1,75 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * Lock-free Fidge-Mattern vector clock.
+ *
+ * Every component is updated with its own atomic operation, so merges coming
+ * in on different channels never wait on each other or on a sender.
+ */
+public class VectorClock {
+  protected final AtomicIntegerArray clock;
+
+  public VectorClock(final int size) {
+    this.clock = new AtomicIntegerArray(size);
+  }
+
+  /**
+   * Increment the component of the given process and return its new value
+   */
+  public int tick(final int id) {
+    return clock.incrementAndGet(id);
+  }
+
+  /**
+   * Take the max over each component with another clock
+   */
+  public void merge(final int[] other) {
+    for (int i = 0; i < other.length; i++) {
+      int current = clock.get(i);
+      // only pay for a CAS when the incoming component is actually ahead
+      while (other[i] > current && !clock.compareAndSet(i, current, other[i])) {
+        current = clock.get(i);
+      }
+    }
+  }
+
+  /**
+   * Tick for a send and build the Application message carrying this clock
+   */
+  public Message.Application stamp(final int id, final int target) {
+    tick(id);
+    return new Message.Application(id, toArray());
+  }
+
+  /**
+   * Apply a received Application message as a receive event, and return
+   * the full clock of the sender at the time it sent the message
+   */
+  public int[] receive(final int id, final Message.Application message) {
+    // take the max over each component
+    merge(message.getVectorClock());
+    // increment clock of current process
+    tick(id);
+    return message.getVectorClock();
+  }
+
+  public int get(final int id) {
+    return clock.get(id);
+  }
+
+  public int length() {
+    return clock.length();
+  }
+
+  /**
+   * Copy the current components into a plain array
+   */
+  public int[] toArray() {
+    final int[] copy = new int[clock.length()];
+    for (int i = 0; i < copy.length; i++) {
+      copy[i] = clock.get(i);
+    }
+    return copy;
+  }
+}
@@ -0,0 +1,50 @@
+/**
+ * Application messages a node sends under the MAP protocol: how many when it
+ * turns ACTIVE, to which neighbors and how far apart.
+ *
+ * Only the sender chain of the node asks for targets and delays, and activations
+ * are asked for under the node's monitor, so implementations need no locking of
+ * their own unless the received hook has to agree with them.
+ */
+public interface Workload {
+  /**
+   * Total messages the node may send over the run
+   */
+  int messageLimit();
+
+  /**
+   * Messages to send for an activation, 0 keeps the node PASSIVE
+   */
+  int activation();
+
+  /**
+   * Neighbor to send the next message of the activation to, -1 ends the activation early
+   */
+  int nextTarget();
+
+  /**
+   * Nanoseconds from the last message of the activation to the next one
+   */
+  long nextDelay();
+
+  /**
+   * An Application message was received, before the node tries to activate
+   */
+  default void received(final int source) {}
+
+  /**
+   * The workload named by the `workload` option of the config
+   */
+  static Workload fromConfig(final Config config, final int[] neighbors) {
+    switch (config.workload) {
+      case "zipf":
+        return new ZipfWorkload(config, neighbors);
+      case "bursty":
+        return new BurstyWorkload(config, neighbors);
+      case "fixedRate":
+        return new FixedRateWorkload(config, neighbors);
+      default:
+        return new UniformWorkload(config, neighbors);
+    }
+  }
+}
@@ -0,0 +1,35 @@
+import java.util.Arrays;
+
+
+/**
+ * Uniform activations, with neighbors picked by a Zipf distribution over their ids:
+ * the k-th lowest neighbor gets weight 1 / k^zipfExponent. Every node ranks its
+ * neighbors the same way, so the low ids become hotspots of the whole topology.
+ */
+public class ZipfWorkload extends UniformWorkload {
+  private final int[] ranked;
+  // cumulative probability of picking each rank or a lower one
+  private final double[] cumulative;
+
+  public ZipfWorkload(final Config config, final int[] neighbors) {
+    super(config, neighbors);
+    this.ranked = neighbors.clone();
+    Arrays.sort(ranked);
+    this.cumulative = new double[ranked.length];
+    double total = 0;
+    for (int k = 0; k < cumulative.length; k++) {
+      total += 1 / Math.pow(k + 1, config.zipfExponent);
+      cumulative[k] = total;
+    }
+    for (int k = 0; k < cumulative.length; k++) {
+      cumulative[k] /= total;
+    }
+  }
+
+  @Override
+  public int nextTarget() {
+    final int k = Arrays.binarySearch(cumulative, random.nextDouble());
+    // a miss gives the insertion point, the first rank whose cumulative is above
+    return ranked[Math.min(k < 0 ? -k - 1 : k, ranked.length - 1)];
+  }
+}
@@ -0,0 +1,117 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Compares RequestTable with the PriorityQueue and HashMap it replaced, as seen
+ * by one node of a busy system.
+ *
+ * usage: make bench && java -cp build RequestTableBench [rounds]
+ *
+ * Every round all nodes request the critical section, the node gets the replies
+ * of its peers, then the requests are released in order, testing after each
+ * reply and release whether the node may enter, as MutualExclusionService does.
+ * Times are per message handled, after a warm-up on the same sizes, and both
+ * must let the node enter the same number of times.
+ */
+public class RequestTableBench {
+  private static final int[] SIZES = {8, 16, 32, 64, 128, 256, 512, 1024};
+  // both structures draw the same request times
+  private static final long SEED = 6378;
+
+  public static void main(String[] args) {
+    final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    // warm-up
+    for (final int nodes : SIZES) {
+      compare(nodes, queue(nodes, rounds, new Random(SEED)), table(nodes, rounds, new Random(SEED)));
+    }
+    System.out.println("nodes  queue ns/msg  table ns/msg");
+    for (final int nodes : SIZES) {
+      final long messages = (long) rounds * 3 * (nodes - 1);
+      long start = System.nanoTime();
+      final long queueEntered = queue(nodes, rounds, new Random(SEED));
+      final double queue = (double) (System.nanoTime() - start) / messages;
+      start = System.nanoTime();
+      final long tableEntered = table(nodes, rounds, new Random(SEED));
+      final double table = (double) (System.nanoTime() - start) / messages;
+      compare(nodes, queueEntered, tableEntered);
+      System.out.printf("%5d  %12.1f  %12.1f%n", nodes, queue, table);
+    }
+  }
+
+  /**
+   * Both structures saw the same requests, so they must have let the node in as often
+   */
+  private static void compare(final int nodes, final long queueEntered, final long tableEntered) {
+    if (queueEntered != tableEntered) {
+      throw new IllegalStateException(nodes + " nodes: queue entered " + queueEntered + " times, table " + tableEntered);
+    }
+  }
+
+  /**
+   * The former structures, returning how many times the node could enter
+   */
+  private static long queue(final int nodes, final int rounds, final Random random) {
+    final Map<Integer, Integer> timestamps = new HashMap<>();
+    final PriorityQueue<Message.Request> requestQueue = new PriorityQueue<>();
+    for (int node = 1; node < nodes; node++) timestamps.put(node, 0);
+    long entered = 0;
+    int clock = 0;
+    for (int round = 0; round < rounds; round++) {
+      final int base = clock;
+      for (int node = 0; node < nodes; node++) {
+        final int time = base + 1 + random.nextInt(nodes);
+        requestQueue.add(new Message.Request(node, time));
+        if (node > 0) timestamps.put(node, time);
+        clock = Math.max(clock, time);
+      }
+      for (int node = 1; node < nodes; node++) {
+        timestamps.put(node, ++clock);
+        if (canEnter(requestQueue, timestamps)) entered++;
+      }
+      while (!requestQueue.isEmpty()) {
+        final int source = requestQueue.peek().getSource();
+        requestQueue.removeIf(r -> r.getSource() == source);
+        if (source > 0) timestamps.put(source, ++clock);
+        if (canEnter(requestQueue, timestamps)) entered++;
+      }
+    }
+    return entered;
+  }
+
+  private static boolean canEnter(final PriorityQueue<Message.Request> requestQueue, final Map<Integer, Integer> timestamps) {
+    return requestQueue.peek() != null &&
+      requestQueue.peek().getSource() == 0 &&
+      timestamps.entrySet().stream().allMatch(t -> t.getValue() >= requestQueue.peek().getTime());
+  }
+
+  /**
+   * The same rounds on a RequestTable
+   */
+  private static long table(final int nodes, final int rounds, final Random random) {
+    final RequestTable table = new RequestTable(0, nodes);
+    long entered = 0;
+    int clock = 0;
+    for (int round = 0; round < rounds; round++) {
+      final int base = clock;
+      for (int node = 0; node < nodes; node++) {
+        final int time = base + 1 + random.nextInt(nodes);
+        table.add(node, time);
+        if (node > 0) table.timestamp(node, time);
+        clock = Math.max(clock, time);
+      }
+      for (int node = 1; node < nodes; node++) {
+        table.timestamp(node, ++clock);
+        if (table.canEnter()) entered++;
+      }
+      int source;
+      while ((source = table.head()) != -1) {
+        table.remove(source);
+        if (source > 0) table.timestamp(source, ++clock);
+        if (table.canEnter()) entered++;
+      }
+    }
+    return entered;
+  }
+}
@@ -3,11 +3,17 @@ import java.io.File;
 
 
 public class Config {
+  public static final String LAMPORT = "lamport";
+  public static final String RICART_AGRAWALA = "ricartAgrawala";
+
+
   public final String project_path;
   public final int nodes;
   public final int interRequestDelay;
   public final int csExecutionTime;
   public final int numRequestsToGenerate;
+  // Mutual exclusion algorithm, lamport or ricartAgrawala
+  public final String algorithm;
   public final NodeConfig[] nodeConfigs;
 
   public Config(
@@ -16,6 +22,7 @@ public class Config {
     final int interRequestDelay,
     final int csExecutionTime,
     final int numRequestsToGenerate,
+    final String algorithm,
     final NodeConfig[] nodeConfigs
   ) {
     this.project_path = project_path;
@@ -23,6 +30,7 @@ public class Config {
     this.interRequestDelay = interRequestDelay;
     this.csExecutionTime = csExecutionTime;
     this.numRequestsToGenerate = numRequestsToGenerate;
+    this.algorithm = algorithm;
     this.nodeConfigs = nodeConfigs;
   }
 
@@ -40,7 +48,8 @@ public class Config {
       String.valueOf(nodes),
       String.valueOf(interRequestDelay),
       String.valueOf(csExecutionTime),
-      String.valueOf(numRequestsToGenerate)
+      String.valueOf(numRequestsToGenerate),
+      algorithm
     );
 
     for (NodeConfig nodeConfig : nodeConfigs) {
@@ -62,10 +71,11 @@ public class Config {
     final int interRequestDelay = Integer.parseInt(args[1]);
     final int csExecutionTime = Integer.parseInt(args[2]);
     final int numRequestsToGenerate = Integer.parseInt(args[3]);
+    final String algorithm = checkAlgorithm(args[4]);
     final NodeConfig[] nodeConfigs = new NodeConfig[nodes];
 
     for (int ni = 0; ni < nodes; ni++) {
-      final int starti = 3 + 3 * ni;
+      final int starti = 4 + 3 * ni;
       nodeConfigs[ni] = new NodeConfig(
         Integer.parseInt(args[starti + 1]),
         args[starti + 2],
@@ -79,6 +89,7 @@ public class Config {
       interRequestDelay,
       csExecutionTime,
       numRequestsToGenerate,
+      algorithm,
       nodeConfigs
     );
   }
@@ -88,11 +99,14 @@ public class Config {
 
     clearEmptyLines(configReader);
 
-    // read first line with 4 main tokens,
+    // read first line with 4 main tokens, and the algorithm if given
     final int nodes = configReader.nextInt();
     final int interRequestDelay = configReader.nextInt();
     final int csExecutionTime = configReader.nextInt();
     final int numRequestsToGenerate = configReader.nextInt();
+    // optional algorithm as the next token, anything after a # is a comment
+    final String[] rest = configReader.nextLine().replaceFirst("#.*", "").trim().split("\\s+");
+    final String algorithm = rest[0].isEmpty() ? LAMPORT : checkAlgorithm(rest[0]);
 
     final NodeConfig[] nodeConfigs = new NodeConfig[nodes];
 
@@ -119,10 +133,21 @@ public class Config {
       interRequestDelay,
       csExecutionTime,
       numRequestsToGenerate,
+      algorithm,
       nodeConfigs
     );
   }
 
+  /**
+   * Reject algorithm names the services do not know, rather than falling back
+   */
+  private static String checkAlgorithm(final String algorithm) {
+    if (!algorithm.equals(LAMPORT) && !algorithm.equals(RICART_AGRAWALA)) {
+      throw new IllegalArgumentException("unknown algorithm " + algorithm + ", expected " + LAMPORT + " or " + RICART_AGRAWALA);
+    }
+    return algorithm;
+  }
+
   private static void clearEmptyLines(final Scanner scanner) {
     while (!scanner.hasNextInt()) scanner.nextLine();
   }
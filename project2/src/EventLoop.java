@@ -0,0 +1,387 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+/**
+ * Single thread owning every peer connection of a node, actor-style.
+ *
+ * One non-blocking socket per pair of nodes, dialed by the lower id, carries the
+ * framed messages both ways. The loop reads whatever arrived, hands each message
+ * to the handler, runs the commands submitted from other threads, then writes out
+ * everything queued for each peer in as few writes as the sockets take. The
+ * handler and the commands run on the loop thread, so the state they touch needs
+ * no locks.
+ */
+public class EventLoop {
+  // milliseconds between attempts to reach a peer whose server is not up yet
+  private static final long RETRY_DELAY = 100;
+
+  private final int nodeId;
+  private final Config config;
+  private final Consumer<Message> handler;
+  private final Selector selector;
+  private final Peer[] peers;
+  private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+  private final CountDownLatch connected;
+  // peers with messages waiting to be written
+  private final List<Peer> dirty = new ArrayList<>();
+  // peers to dial again, with the time of the next attempt
+  private final List<Peer> retries = new ArrayList<>();
+  private int messagesSent = 0;
+
+  /**
+   * One end of the connection to a peer
+   */
+  private static class Peer {
+    final int id;
+    SocketChannel channel;
+    SelectionKey key;
+    ByteBuffer in = ByteBuffer.allocate(1 << 12);
+    ByteBuffer out = ByteBuffer.allocate(1 << 12);
+    long retryAt;
+
+    Peer(final int id) {
+      this.id = id;
+    }
+  }
+
+  public EventLoop(final int nodeId, final Config config, final Consumer<Message> handler) throws IOException {
+    this.nodeId = nodeId;
+    this.config = config;
+    this.handler = handler;
+    this.selector = Selector.open();
+    this.peers = new Peer[config.nodes];
+    this.connected = new CountDownLatch(config.nodes - 1);
+
+    final ServerSocketChannel server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(config.nodeConfigs[nodeId].listenPort), config.nodes);
+    server.configureBlocking(false);
+    server.register(selector, SelectionKey.OP_ACCEPT);
+    for (int node = nodeId + 1; node < config.nodes; node++) {
+      dial(new Peer(node));
+    }
+  }
+
+  /**
+   * Start the loop on its own thread, which keeps the JVM alive until the service exits
+   */
+  public void start() {
+    new Thread(this::run, "node-" + nodeId + "-loop").start();
+  }
+
+  /**
+   * Block until a connection to every peer is up
+   */
+  public void awaitConnected() throws InterruptedException {
+    connected.await();
+  }
+
+  /**
+   * Run a command on the loop thread
+   */
+  public void submit(final Runnable command) {
+    commands.add(command);
+    selector.wakeup();
+  }
+
+  /**
+   * Queue a message for a peer, written out at the end of the current round.
+   * Loop thread only.
+   */
+  public void send(final int targetNode, final Message message) {
+    queue(peers[targetNode], message);
+    messagesSent += 1;
+  }
+
+  /**
+   * Append the frame of a message to what goes out to a peer, uncounted
+   */
+  private void queue(final Peer peer, final Message message) {
+    final int size = message.size() + 4;
+    if (peer.out.remaining() < size) {
+      final ByteBuffer grown = ByteBuffer.allocate(Math.max(peer.out.capacity() * 2, peer.out.position() + size));
+      peer.out.flip();
+      grown.put(peer.out);
+      peer.out = grown;
+    }
+    message.write(peer.out);
+    if (peer.out.position() == size) dirty.add(peer);
+  }
+
+  /**
+   * Queue a message for every peer. Loop thread only.
+   */
+  public void broadcast(final Message message) {
+    for (int node = 0; node < config.nodes; node++) {
+      if (node != nodeId) send(node, message);
+    }
+  }
+
+  /**
+   * Messages sent so far, not counting handshakes. Loop thread only.
+   */
+  public int getMessagesSent() {
+    return messagesSent;
+  }
+
+  /**
+   * Write out everything still queued, waiting on slow peers for up to a second.
+   * Loop thread only, used before the service exits.
+   */
+  public void drain() {
+    final long deadline = System.currentTimeMillis() + 1000;
+    for (final Peer peer : peers) {
+      if (peer == null || peer.channel == null) continue;
+      peer.out.flip();
+      try {
+        while (peer.out.hasRemaining() && System.currentTimeMillis() < deadline) {
+          if (peer.channel.write(peer.out) == 0) Thread.onSpinWait();
+        }
+      } catch (IOException e) {
+        // the peer is gone already
+      }
+      peer.out.compact();
+    }
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        selector.select(retries.isEmpty() ? 0 : RETRY_DELAY);
+        final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+        while (selected.hasNext()) {
+          final SelectionKey key = selected.next();
+          selected.remove();
+          if (!key.isValid()) continue;
+          if (key.isAcceptable()) {
+            accept((ServerSocketChannel) key.channel());
+            continue;
+          }
+          final Peer peer = (Peer) key.attachment();
+          try {
+            if (key.isConnectable()) {
+              finishDial(peer);
+            } else {
+              if (key.isReadable()) read(key);
+              if (key.isValid() && key.isWritable()) dirty.add((Peer) key.attachment());
+            }
+          } catch (IOException | RuntimeException e) {
+            // one failing peer must not take the connections to every other one down
+            drop(key, e);
+          }
+        }
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+          try {
+            command.run();
+          } catch (RuntimeException e) {
+            err("command failed: " + e);
+            e.printStackTrace();
+          }
+        }
+        retryDials();
+        flush();
+      }
+    } catch (IOException | RuntimeException e) {
+      // the node cannot talk to its peers anymore, stop instead of leaving them waiting silently
+      err("event loop failed, halting: " + e);
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Close the connection behind a key after its peer or its handler failed
+   */
+  private void drop(final SelectionKey key, final Exception e) {
+    final Peer peer = (Peer) key.attachment();
+    err("dropping the connection to " + peer.id + ": " + e);
+    e.printStackTrace();
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException closing) {
+      // closed already
+    }
+  }
+
+  private void accept(final ServerSocketChannel server) {
+    SocketChannel channel = null;
+    try {
+      channel = server.accept();
+      if (channel == null) return;
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      // the peer is known once its hello arrives
+      final Peer peer = new Peer(-1);
+      peer.channel = channel;
+      peer.key = channel.register(selector, SelectionKey.OP_READ, peer);
+    } catch (IOException e) {
+      // the server keeps accepting, the peer dials again
+      err("accepting a connection failed: " + e.getMessage());
+      try {
+        if (channel != null) channel.close();
+      } catch (IOException closing) {
+        // closed already
+      }
+    }
+  }
+
+  private void dial(final Peer peer) throws IOException {
+    final Config.NodeConfig target = config.nodeConfigs[peer.id];
+    peer.channel = SocketChannel.open();
+    peer.channel.configureBlocking(false);
+    peer.channel.socket().setTcpNoDelay(true);
+    final boolean established;
+    try {
+      established = peer.channel.connect(new InetSocketAddress(target.hostName, target.listenPort));
+    } catch (IOException e) {
+      // refused right away, the peer's server is not up yet
+      retry(peer);
+      return;
+    }
+    if (established) {
+      connected(peer);
+    } else {
+      peer.key = peer.channel.register(selector, SelectionKey.OP_CONNECT, peer);
+    }
+  }
+
+  private void finishDial(final Peer peer) throws IOException {
+    try {
+      // still pending, OP_CONNECT stays on
+      if (!peer.channel.finishConnect()) return;
+    } catch (IOException e) {
+      // the peer's server is not up yet
+      peer.key.cancel();
+      peer.key = null;
+      retry(peer);
+      return;
+    }
+    connected(peer);
+  }
+
+  /**
+   * Close a failed dial and try again after RETRY_DELAY
+   */
+  private void retry(final Peer peer) throws IOException {
+    peer.channel.close();
+    peer.retryAt = System.currentTimeMillis() + RETRY_DELAY;
+    retries.add(peer);
+  }
+
+  private void retryDials() throws IOException {
+    final long now = System.currentTimeMillis();
+    // taken out first, a failed dial goes back on the list
+    final List<Peer> due = new ArrayList<>();
+    retries.removeIf(peer -> peer.retryAt <= now && due.add(peer));
+    for (final Peer peer : due) {
+      try {
+        dial(peer);
+      } catch (IOException e) {
+        err("dialing " + peer.id + " failed: " + e.getMessage());
+        retry(peer);
+      }
+    }
+  }
+
+  /**
+   * A dialed connection is up, introduce ourselves before anything else
+   */
+  private void connected(final Peer peer) throws IOException {
+    if (peer.key == null) {
+      peer.key = peer.channel.register(selector, SelectionKey.OP_READ, peer);
+    } else {
+      peer.key.interestOps(SelectionKey.OP_READ);
+    }
+    peers[peer.id] = peer;
+    queue(peer, new Message.Hello(nodeId));
+    log("connected to " + peer.id);
+    connected.countDown();
+  }
+
+  private void read(final SelectionKey key) throws IOException {
+    Peer peer = (Peer) key.attachment();
+    final int count;
+    try {
+      count = peer.channel.read(peer.in);
+    } catch (IOException e) {
+      key.cancel();
+      return;
+    }
+    if (count == -1) {
+      // the peer exited
+      key.cancel();
+      peer.channel.close();
+      return;
+    }
+    peer.in.flip();
+    Message message;
+    while ((message = Message.read(peer.in)) != null) {
+      if (message instanceof Message.Hello) {
+        // an accepted connection, now we know who is on the other end
+        final Peer accepted = peer;
+        peer = new Peer(message.getSource());
+        peer.channel = accepted.channel;
+        peer.key = key;
+        peer.in = accepted.in;
+        key.attach(peer);
+        peers[peer.id] = peer;
+        log("connected to " + peer.id);
+        connected.countDown();
+      } else {
+        handler.accept(message);
+      }
+    }
+    peer.in.compact();
+    if (!peer.in.hasRemaining()) {
+      // a frame bigger than the buffer
+      final ByteBuffer grown = ByteBuffer.allocate(peer.in.capacity() * 2);
+      peer.in.flip();
+      grown.put(peer.in);
+      peer.in = grown;
+    }
+  }
+
+  /**
+   * Write what the round queued for each peer, leaving OP_WRITE on for the
+   * peers whose socket did not take all of it
+   */
+  private void flush() throws IOException {
+    for (final Peer peer : dirty) {
+      if (!peer.key.isValid()) continue;
+      peer.out.flip();
+      try {
+        peer.channel.write(peer.out);
+      } catch (IOException e) {
+        // the peer exited, what it did not read is lost with it
+        peer.out.clear();
+        peer.key.cancel();
+        continue;
+      }
+      peer.out.compact();
+      peer.key.interestOps(peer.out.position() > 0
+        ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+        : SelectionKey.OP_READ);
+    }
+    dirty.clear();
+  }
+
+  private void err(final String message) {
+    System.err.println("[" + nodeId + "-loop] " + message);
+  }
+
+  private void log(final String message) {
+    System.out.println("[" + nodeId + "-loop] " + message);
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Lamport's mutual exclusion algorithm.
+ *
+ * A request goes to every node, which queues it and replies. A node enters once
+ * its request is at the head of the queue and every peer has sent something
+ * later, and on leaving it sends every node a release to take the request off
+ * their queues: 3(n - 1) messages per entry.
+ */
+public class LamportService extends MutualExclusionService {
+  private final RequestTable requestTable; // Pending requests and latest timestamp received from each process
+
+  public LamportService(final int nodeId, final Config config) throws Exception {
+    super(nodeId, config);
+    requestTable = new RequestTable(nodeId, config.nodes);
+  }
+
+  @Override
+  protected void request() {
+    lamportClock += 1;
+    final Message.Request requestMessage = new Message.Request(nodeId, lamportClock);
+    requestTable.add(nodeId, lamportClock);
+
+    // Send out request messages to all outgoing channels
+    eventLoop.broadcast(requestMessage);
+
+    // Alone in the system, nothing to wait for
+    testCriticalSection();
+  }
+
+  @Override
+  protected void release(final boolean finished) {
+    leave();
+    final Message releaseMessage = new Message.Release(nodeId, lamportClock, finished, saved_vector_clock);
+
+    // Close writer before sending release message
+    if (finished) {
+      closeLog();
+    }
+
+    // Send out release messages to all outgoing channels
+    eventLoop.broadcast(releaseMessage);
+
+    if (finished) {
+      check_finished(nodeId);
+    }
+  }
+
+  @Override
+  protected void handleMessage(final Message message) {
+    if (message instanceof Message.Request) {
+      log("received a request message.");
+      handleRequest((Message.Request) message);
+    } else if (message instanceof Message.Reply) {
+      log("received a reply message.");
+      handleReply((Message.Reply) message);
+    } else if (message instanceof Message.Release) {
+      log("received a release message.");
+      handleRelease((Message.Release) message);
+    }
+  }
+
+  private void handleRequest(final Message.Request requestMessage) {
+    requestTable.add(requestMessage.getSource(), requestMessage.getTime());
+
+    // Update scalar clock and send reply
+    lamportClock = Integer.max(lamportClock, requestMessage.getTime()) + 1;
+    eventLoop.send(requestMessage.getSource(), new Message.Reply(nodeId, lamportClock));
+
+    requestTable.timestamp(requestMessage.getSource(), requestMessage.getTime());
+  }
+
+  private void handleReply(final Message.Reply replyMessage) {
+    int source = replyMessage.getSource();
+    int time = replyMessage.getTime();
+
+    // Update scalar clock
+    lamportClock = Integer.max(lamportClock, time) + 1;
+
+    // Update the timestamp of a source
+    requestTable.timestamp(source, time);
+
+    testCriticalSection();
+  }
+
+  private void handleRelease(final Message.Release releaseMessage) {
+    // Update scalar clock
+    lamportClock = Integer.max(lamportClock, releaseMessage.getTime()) + 1;
+    checkVectorClock(releaseMessage.getVectorClock());
+
+    // Remove source's request from the queue
+    requestTable.remove(releaseMessage.getSource());
+
+    requestTable.timestamp(releaseMessage.getSource(), releaseMessage.getTime());
+
+    if (releaseMessage.getFinished()) {
+      check_finished(releaseMessage.getSource());
+    }
+
+    testCriticalSection();
+  }
+
+  // wait for reply from all or for timestamp to be lower than all other received times
+  // wait for request to be at front of queue
+  private void testCriticalSection() {
+    // provide access to the critical section when request is at the front and all peering timestamps are lower
+    if (requestTable.canEnter()) {
+      // Remove own request from the queue
+      requestTable.remove(nodeId);
+      enter();
+    }
+  }
+}
@@ -1,7 +1,20 @@
-import java.io.Serializable;
-import java.util.List;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Messages between the mutual exclusion services, framed on the wire as
+ *  int    length of the rest of the frame
+ *  byte   type
+ *  int    source and int time
+ * followed for releases by the finished flag and the vector clock, and for
+ * replies by the vector clock if they carry one.
+ */
+public abstract class Message {
+  private static final byte HELLO = 0;
+  private static final byte REQUEST = 1;
+  private static final byte REPLY = 2;
+  private static final byte RELEASE = 3;
 
-public abstract class Message implements Serializable {
   private int source;
   private int time;
 
@@ -18,11 +31,83 @@ public abstract class Message implements Serializable {
     return time;
   }
 
+  abstract byte type();
+
+  /**
+   * Bytes of the frame after the length
+   */
+  int size() {
+    return 1 + 4 + 4;
+  }
+
+  /**
+   * Append the frame of this message to a buffer with size() + 4 bytes left
+   */
+  void write(final ByteBuffer buffer) {
+    buffer.putInt(size());
+    buffer.put(type());
+    buffer.putInt(source);
+    buffer.putInt(time);
+  }
+
+  /**
+   * Take the next message off a buffer, or return null if its frame is not complete yet
+   */
+  static Message read(final ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < 4 || buffer.remaining() < 4 + buffer.getInt(buffer.position())) return null;
+    buffer.getInt();
+    final byte type = buffer.get();
+    final int source = buffer.getInt();
+    final int time = buffer.getInt();
+    switch (type) {
+      case HELLO:
+        return new Hello(source);
+      case REQUEST:
+        return new Request(source, time);
+      case REPLY:
+        final int length = buffer.getInt();
+        if (length == 0) return new Reply(source, time);
+        final int[] reply_clock = new int[length];
+        for (int i = 0; i < reply_clock.length; i++) {
+          reply_clock[i] = buffer.getInt();
+        }
+        return new Reply(source, time, reply_clock);
+      case RELEASE:
+        final boolean finished = buffer.get() != 0;
+        final int[] vector_clock = new int[buffer.getInt()];
+        for (int i = 0; i < vector_clock.length; i++) {
+          vector_clock[i] = buffer.getInt();
+        }
+        return new Release(source, time, finished, vector_clock);
+      default:
+        throw new IOException("unknown message type " + type);
+    }
+  }
+
+  /**
+   * First message on a connection, telling the accepting side who dialed
+   */
+  static class Hello extends Message {
+    public Hello(final int source) {
+      super(source, 0);
+    }
+
+    @Override
+    byte type() {
+      return HELLO;
+    }
+  }
+
   static class Request extends Message implements Comparable<Message.Request> {
     public Request(final int source, final int time) {
       super(source, time);
     }
 
+    @Override
+    byte type() {
+      return REQUEST;
+    }
+
     // Comparator for priority queue ordering
     @Override
     public int compareTo(Message.Request anotherRequest) {
@@ -62,11 +147,66 @@ public abstract class Message implements Serializable {
     public int[] getVectorClock() {
       return vector_clock;
     }
+
+    @Override
+    byte type() {
+      return RELEASE;
+    }
+
+    @Override
+    int size() {
+      return super.size() + 1 + 4 + 4 * vector_clock.length;
+    }
+
+    @Override
+    void write(final ByteBuffer buffer) {
+      super.write(buffer);
+      buffer.put((byte) (finished ? 1 : 0));
+      buffer.putInt(vector_clock.length);
+      for (int value : vector_clock) {
+        buffer.putInt(value);
+      }
+    }
   }
 
  static class Reply extends Message {
+    private int[] vector_clock;
+
     public Reply(final int source, final int time) {
+      this(source, time, null);
+    }
+
+    public Reply(final int source, final int time, final int[] vector_clock) {
       super(source, time);
+      this.vector_clock = vector_clock;
+    }
+
+    // Vector clock of the sender, or null
+    public int[] getVectorClock() {
+      return vector_clock;
+    }
+
+    @Override
+    byte type() {
+      return REPLY;
+    }
+
+    @Override
+    int size() {
+      return super.size() + 4 + (vector_clock == null ? 0 : 4 * vector_clock.length);
+    }
+
+    @Override
+    void write(final ByteBuffer buffer) {
+      super.write(buffer);
+      if (vector_clock == null) {
+        buffer.putInt(0);
+        return;
+      }
+      buffer.putInt(vector_clock.length);
+      for (int value : vector_clock) {
+        buffer.putInt(value);
+      }
     }
   }
 }
@@ -14,7 +14,7 @@ public class MetricLogger {
         String.valueOf(config.nodes),
         String.valueOf(config.interRequestDelay),
         String.valueOf(config.csExecutionTime)
-      );
+      ) + (config.algorithm.equals(Config.LAMPORT) ? "" : ":" + config.algorithm);
       outputWriter.write(executionParameters + " " + metricType + " " + value + "\n");
       outputWriter.close();
     } catch (Exception e) {
@@ -1,34 +1,55 @@
 import java.util.concurrent.Semaphore;
 import java.util.*;
-import java.net.*;
 import java.io.*;
 
-public class MutualExclusionService {
-  private final Map<Integer, Socket> sockets = new HashMap<>();
-  private final Map<Integer, ObjectOutputStream> outputStreams = new HashMap<>();
-  private final Map<Integer, Integer> timestamps = new HashMap<>(); // Latest timestamp received from each process
+/**
+ * Mutual exclusion between the nodes of a config, with the algorithm picked by
+ * the config: LamportService or RicartAgrawalaService.
+ *
+ * The protocol state is only touched on the thread of the event loop, which runs
+ * the handlers of incoming messages and the commands csEnter and csLeave submit,
+ * so none of it needs locks. The calling thread only waits on csLock for the
+ * permission to enter. This class keeps what the algorithms share: the CS log,
+ * the clocks, the vector clock check and the termination.
+ */
+public abstract class MutualExclusionService {
   private final Map<Integer, Boolean> finishedMap = new HashMap<>(); // Track if each process has finished 
 
   private final Semaphore csLock = new Semaphore(0, true);
 
-  private final PriorityQueue<Message.Request> requestQueue = new PriorityQueue<Message.Request>();
-
-  private final int nodeId;
-  private final Config config;
+  protected final int nodeId;
+  protected final Config config;
   private final FileWriter outputWriter;
+  protected final EventLoop eventLoop;
   
   // Scalar lamport clock
-  private Integer lamportClock = 0;
-
-  // Metric variables
-  private int messagesSent = 0;
+  protected int lamportClock = 0;
 
   // Vector clock for correctness check
-  private int[] vector_clock; 
-  private int[] saved_vector_clock; // Save the current clock when entering CS
+  protected int[] vector_clock; 
+  protected int[] saved_vector_clock; // Save the current clock when entering CS
   boolean failed = false; // Track if any nodes failed the check
 
-  public MutualExclusionService(
+  /**
+   * Start the service of the algorithm set in the config, once connected to every node
+   */
+  public static MutualExclusionService fromConfig(final int nodeId, final Config config) throws Exception {
+    final MutualExclusionService service;
+    switch (config.algorithm) {
+      case Config.LAMPORT:
+        service = new LamportService(nodeId, config);
+        break;
+      case Config.RICART_AGRAWALA:
+        service = new RicartAgrawalaService(nodeId, config);
+        break;
+      default:
+        throw new IllegalArgumentException("unknown algorithm " + config.algorithm);
+    }
+    service.connect();
+    return service;
+  }
+
+  protected MutualExclusionService(
     final int nodeId,
     final Config config
   ) throws Exception {
@@ -59,57 +80,36 @@ public class MutualExclusionService {
     
     vector_clock = new int[config.nodes]; // Initialize vector clock to all 0
 
-    // spawn a thread to accept connections to this node
-    new Thread(() -> setupListener()).start(); 
-
-    log("sleeping for [7] seconds to allow peer server sockets to setup...");
-    Thread.sleep(7000);
-
     finishedMap.put(nodeId, false); // Need entry to track if self has finished
-    
-    // create a socket connection to each node
     for (int node = 0; node < config.nodes; node++) {
-      if(node == nodeId) // Don't connect to self
+      if(node == nodeId) // Don't track self
         continue;
-        
-      final Socket socket = new Socket(
-        config.nodeConfigs[node].hostName,
-        config.nodeConfigs[node].listenPort
-      );
-
-      log("connected to " + node);
 
-      sockets.put(node, socket);
-      outputStreams.put(node, new ObjectOutputStream(socket.getOutputStream()));
-
-      timestamps.put(node, 0);
       finishedMap.put(node, false);
     }
-    
-    log("sleeping for [7] seconds to allow peer client sockets to setup...");
-    Thread.sleep(7000);
+
+    eventLoop = new EventLoop(nodeId, config, this::handleMessage);
+  }
+
+  /**
+   * Connect to every node, and wait until all of them are connected to this one.
+   * Messages are only handled from here on, once the algorithm is set up.
+   */
+  private void connect() throws InterruptedException {
+    eventLoop.start();
+    log("waiting for peers to connect...");
+    eventLoop.awaitConnected();
+    log("connected to all peers");
   }
 
   /**
    * Critial Section Enter
    *
-   * Send request messages to all nodes and wait for replies before allowing
+   * Ask the other nodes for permission and wait for it before allowing
    * entrance into the critical section
    */
   public void csEnter() {
-    Message.Request requestMessage;
-    synchronized(lamportClock) {
-      lamportClock += 1;
-      requestMessage = new Message.Request(nodeId, lamportClock);
-    }
-    synchronized(requestQueue) {
-      requestQueue.add(requestMessage);
-    }
-
-    // Send out request messages to all outgoing channels
-    for (int streamIndex : outputStreams.keySet()) {
-      sendMessage(streamIndex, requestMessage);
-    }
+    eventLoop.submit(this::request);
 
     // block until permission given
     try {
@@ -117,201 +117,100 @@ public class MutualExclusionService {
     } catch (Exception e) {
       e.printStackTrace();
     }
-
-    saved_vector_clock = Arrays.copyOf(vector_clock, vector_clock.length); // Copy the current vector clock
-
-    try {
-      outputWriter.write(nodeId + " enter at " + lamportClock + "\n");
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
   }
 
   /**
    * Critical Section Leave
    *
-   * Send release messages notifying nodes in the system that the current
-   * process has completed executing critical section
+   * Let the other nodes in, telling them if this node has finished
    */
   public void csLeave(boolean finished) {
+    eventLoop.submit(() -> release(finished));
+  }
 
-    Message releaseMessage;
-    synchronized(lamportClock) {
-      lamportClock += 1;
-      saved_vector_clock[nodeId] += 1;
-      vector_clock[nodeId] += 1;
-      releaseMessage = new Message.Release(nodeId, lamportClock, finished, saved_vector_clock);
-      
-      try {
-        outputWriter.write(nodeId + " leave at " + lamportClock + "\n");
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
-    }
+  /**
+   * Ask the other nodes for the critical section, on the event loop
+   */
+  protected abstract void request();
 
-    // Close writer before sending release message. Guarantee node0 won't read file before it gets closed
-    if (finished) {
-      try {
-        outputWriter.close();
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
-    }
-      
-    // Send out release messages to all outgoing channels
-    for (int streamIndex : outputStreams.keySet()) {
-      sendMessage(streamIndex, releaseMessage);
-    }
+  /**
+   * Leave the critical section, on the event loop
+   */
+  protected abstract void release(boolean finished);
 
-    if (finished) {
-      check_finished(nodeId);
-    }
-  }
+  /**
+   * Handle a message from a peer, on the event loop
+   */
+  protected abstract void handleMessage(Message message);
+
+  /**
+   * Log the entry into the critical section and let the calling thread in
+   */
+  protected void enter() {
+    saved_vector_clock = Arrays.copyOf(vector_clock, vector_clock.length); // Copy the current vector clock
 
-  private void setupListener() {
     try {
-      // open a listening socket for the server
-      final ServerSocket welcomeSocket = new ServerSocket(config.nodeConfigs[nodeId].listenPort);
-      while (true) {
-        // accept incoming socket connection requests
-        final Socket connectionSocket = welcomeSocket.accept();
-        final ObjectInputStream inputStream = new ObjectInputStream(connectionSocket.getInputStream());
-        // spawn a new handler for the accepted
-        new Thread(() -> {
-          while (true) {
-            try {
-              final Message message = (Message) inputStream.readObject();
-              if (message instanceof Message.Request) {
-                log("received a request message.");
-                handleRequest((Message.Request) message);
-              } else if (message instanceof Message.Reply) {
-                log("received a reply message.");
-                handleReply((Message.Reply) message);
-              } else if (message instanceof Message.Release) {
-                log("received a release message.");
-                handleRelease((Message.Release) message);
-              }
-            } catch (EOFException e) {
-              break; // this is fine to ignore
-            } catch (Exception e) {
-              e.printStackTrace();
-            }
-          }
-        }).start();
-      }
+      outputWriter.write(nodeId + " enter at " + lamportClock + "\n");
     } catch (Exception e) {
       e.printStackTrace();
     }
-  }
-
-  private void handleRequest(final Message.Request requestMessage) {
-    synchronized(requestQueue) {
-      requestQueue.add(requestMessage);
-    }
 
-    // Update scalar clock and send reply
-    synchronized(lamportClock) {
-      lamportClock = Integer.max(lamportClock, requestMessage.getTime()) + 1; 
-      sendMessage(requestMessage.getSource(), new Message.Reply(nodeId, lamportClock));
-    }
-    
-    timestamps.put(requestMessage.getSource(), requestMessage.getTime());
+    csLock.release();
   }
 
-  private void handleReply(final Message.Reply replyMessage) {
-    int source = replyMessage.getSource();
-    int time = replyMessage.getTime();
+  /**
+   * Count the exit in the clocks and log it
+   */
+  protected void leave() {
+    lamportClock += 1;
+    saved_vector_clock[nodeId] += 1;
+    vector_clock[nodeId] += 1;
 
-    // Update scalar clock
-    synchronized(lamportClock) {
-      lamportClock = Integer.max(lamportClock, time) + 1; 
+    try {
+      outputWriter.write(nodeId + " leave at " + lamportClock + "\n");
+    } catch (Exception e) {
+      e.printStackTrace();
     }
-
-    // Update the timestamp of a source. Don't need to synchronize since each source is only accessed by a single thread
-    timestamps.put(source, time);
-
-    testCriticalSection();
   }
 
-  private void handleRelease(final Message.Release releaseMessage) {
-    // Update scalar clock
-    synchronized(lamportClock) {
-      lamportClock = Integer.max(lamportClock, releaseMessage.getTime()) + 1; 
-      int[] recv_clock = releaseMessage.getVectorClock();
-
-      // new_clock didn't know about a release from this node so it must've started before this node exitted CS
-      if(vector_clock[nodeId] != recv_clock[nodeId]) {
-        err("Multiple nodes in CS");
-        failed = true;
-      }
-
-      // Update vector clock to max of values received
-      for(int i = 0; i < config.nodes; i++) {
-        vector_clock[i] = Integer.max(vector_clock[i], recv_clock[i]);
-      }
-    }
-
-    // Remove source's request from the queue
-    synchronized(requestQueue) {
-      requestQueue.removeIf((r) -> r.getSource() == releaseMessage.getSource());
-    }
-
-    timestamps.put(releaseMessage.getSource(), releaseMessage.getTime());
-
-    if (releaseMessage.getFinished()) {
-      check_finished(releaseMessage.getSource());
-    }
-
-    testCriticalSection();
-  }
-  
   /**
-   * Send a message to a target node with a provided Message.
-   * 
-   * Note:
-   *  important synchronized resource, only one thread
-   *  should be using the output stream at once
+   * Close the log after the last exit. Done before telling the others this node
+   * finished, which guarantees node0 won't read the file before it gets closed
    */
-  private synchronized void sendMessage(final int targetNode, final Message message) {
+  protected void closeLog() {
     try {
-      final ObjectOutputStream ostream = outputStreams.get(targetNode);
-      ostream.writeObject(message);
-      ostream.flush();
-      // increment message counter
-      messagesSent += 1;
+      outputWriter.close();
     } catch (Exception e) {
       e.printStackTrace();
     }
   }
 
-  // wait for reply from all or for timestamp to be lower than all other received times
-  // wait for request to be at front of queue
-  private void testCriticalSection() {
-    synchronized(timestamps) {
-      synchronized(requestQueue) {
-        if ( // provide access to the critical section when request is at the front and all peering timestamps are lower
-          requestQueue.peek() != null &&
-          requestQueue.peek().getSource() == nodeId &&
-          timestamps.entrySet().stream().allMatch(t -> t.getValue() >= requestQueue.peek().getTime())
-        ) {
-          // Remove own request from the queue
-          requestQueue.poll();
-          csLock.release();
-        }
-      }
+  /**
+   * Check the vector clock of a peer against the own exits, and merge it
+   */
+  protected void checkVectorClock(final int[] recv_clock) {
+    // new_clock didn't know about a release from this node so it must've started before this node exitted CS
+    if(vector_clock[nodeId] != recv_clock[nodeId]) {
+      err("Multiple nodes in CS");
+      failed = true;
+    }
+
+    // Update vector clock to max of values received
+    for(int i = 0; i < config.nodes; i++) {
+      vector_clock[i] = Integer.max(vector_clock[i], recv_clock[i]);
     }
   }
 
-  private void err(final String message) {
+  protected void err(final String message) {
     System.err.println("[" + nodeId + "-meService] " + message);
   }
 
-  private void log(final String message) {
+  protected void log(final String message) {
     System.out.println("[" + nodeId + "-meService] " + message);
   }
 
   // Update node_id to be finished. If all nodes are finished, terminate
-  private void check_finished(int node_id) {
+  protected void check_finished(int node_id) {
     finishedMap.put(node_id, true);
     if(!finishedMap.containsValue(false)) {
       log("terminating");
@@ -322,7 +221,7 @@ public class MutualExclusionService {
       }
 
       // record the number of messages sent during the execution
-      MetricLogger.record(nodeId, config, "messageComplexity", (double) messagesSent / config.numRequestsToGenerate);
+      MetricLogger.record(nodeId, config, "messageComplexity", (double) eventLoop.getMessagesSent() / config.numRequestsToGenerate);
 
       // Node 0 runs mutual exclusion check
       if (nodeId == 0) {
@@ -365,6 +264,8 @@ public class MutualExclusionService {
         log("passed mutual exclusion check!");
       }
 
+      // hand the last releases and replies to the sockets before exiting
+      eventLoop.drain();
       System.exit(0);
     }
   }
@@ -29,7 +29,7 @@ public class Node {
     MetricLogger.init(config);
     
     // start new node
-    new Node(id, config, new MutualExclusionService(id, config)).run();
+    new Node(id, config, MutualExclusionService.fromConfig(id, config)).run();
   }
 
   private void run() throws Exception {
@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+ * Pending critical section requests and latest peer timestamps of Lamport's
+ * algorithm, one slot per node id.
+ *
+ * Each node has at most one request pending, so the queue is an indexed binary
+ * min-heap of node ids ordered by (time, id) like Message.Request, with the
+ * position of every node kept to remove its request in O(log n). Alongside, the
+ * table counts the peers whose latest timestamp is still below the own request,
+ * updated as timestamps come in, so testing whether this node may enter is O(1).
+ * Nothing is allocated after construction.
+ */
+public class RequestTable {
+  private static final int NONE = -1;
+
+  private final int self;
+  // time of the pending request of each node, or NONE
+  private final int[] requestTimes;
+  // latest timestamp received from each node
+  private final int[] timestamps;
+  // heap of the node ids with a pending request
+  private final int[] heap;
+  // index of each node in the heap, or NONE
+  private final int[] positions;
+  private int size = 0;
+  // peers whose latest timestamp is below the own pending request
+  private int behind = 0;
+
+  public RequestTable(final int self, final int nodes) {
+    this.self = self;
+    this.requestTimes = new int[nodes];
+    this.timestamps = new int[nodes];
+    this.heap = new int[nodes];
+    this.positions = new int[nodes];
+    Arrays.fill(requestTimes, NONE);
+    Arrays.fill(positions, NONE);
+  }
+
+  /**
+   * Queue the request of a node, replacing the one it had pending if any
+   */
+  public void add(final int node, final int time) {
+    if (positions[node] != NONE) remove(node);
+    requestTimes[node] = time;
+    positions[node] = size;
+    heap[size++] = node;
+    siftUp(positions[node]);
+    if (node == self) {
+      behind = 0;
+      for (int peer = 0; peer < timestamps.length; peer++) {
+        if (peer != self && timestamps[peer] < time) behind++;
+      }
+    }
+  }
+
+  /**
+   * Drop the pending request of a node, if it has one
+   */
+  public void remove(final int node) {
+    final int position = positions[node];
+    if (position == NONE) return;
+    final int last = heap[--size];
+    positions[node] = NONE;
+    requestTimes[node] = NONE;
+    if (node == self) behind = 0;
+    if (last == node) return;
+    heap[position] = last;
+    positions[last] = position;
+    siftDown(position);
+    siftUp(positions[last]);
+  }
+
+  /**
+   * Record the latest timestamp received from a peer
+   */
+  public void timestamp(final int node, final int time) {
+    final int own = requestTimes[self];
+    if (own != NONE && node != self) {
+      final boolean was = timestamps[node] < own;
+      final boolean is = time < own;
+      if (was && !is) behind--;
+      else if (!was && is) behind++;
+    }
+    timestamps[node] = time;
+  }
+
+  /**
+   * Whether the own request is at the head and every peer has sent a later timestamp
+   */
+  public boolean canEnter() {
+    return size > 0 && heap[0] == self && behind == 0;
+  }
+
+  /**
+   * The node with the earliest pending request, or NONE
+   */
+  public int head() {
+    return size > 0 ? heap[0] : NONE;
+  }
+
+  private boolean before(final int a, final int b) {
+    return requestTimes[a] < requestTimes[b] || requestTimes[a] == requestTimes[b] && a < b;
+  }
+
+  private void siftUp(int position) {
+    final int node = heap[position];
+    while (position > 0) {
+      final int parent = (position - 1) >>> 1;
+      if (!before(node, heap[parent])) break;
+      heap[position] = heap[parent];
+      positions[heap[position]] = position;
+      position = parent;
+    }
+    heap[position] = node;
+    positions[node] = position;
+  }
+
+  private void siftDown(int position) {
+    final int node = heap[position];
+    while (true) {
+      int child = 2 * position + 1;
+      if (child >= size) break;
+      if (child + 1 < size && before(heap[child + 1], heap[child])) child++;
+      if (!before(heap[child], node)) break;
+      heap[position] = heap[child];
+      positions[heap[position]] = position;
+      position = child;
+    }
+    heap[position] = node;
+    positions[node] = position;
+  }
+}
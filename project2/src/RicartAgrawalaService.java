@@ -0,0 +1,148 @@
+/**
+ * Ricart and Agrawala's mutual exclusion algorithm, with the optimization of
+ * Roucairol and Carvalho.
+ *
+ * A reply is a permission to enter, and it stays with the node that got it until
+ * the peer asks for it back. A node only requests the permissions it gave away
+ * since it last entered, and enters again without a message when it gave none.
+ * Requests coming in during the critical section, or losing against the own
+ * pending request, are answered when leaving instead of sending releases: at most
+ * 2(n - 1) messages per entry, and none while the other nodes stay away.
+ *
+ * Of every pair of nodes the lower id starts with the permission. Replies carry
+ * the vector clock of the sender for the check Lamport runs on releases, and a
+ * finished node sends every node one release so they can all terminate.
+ */
+public class RicartAgrawalaService extends MutualExclusionService {
+  private final boolean[] permissions; // Whether this node holds the permission of each peer
+  private final boolean[] deferred; // Peers whose request waits for the exit
+  private int missing = 0; // Permissions this node does not hold
+
+  private boolean requesting = false;
+  private boolean inCriticalSection = false;
+  private int requestTime;
+
+  public RicartAgrawalaService(final int nodeId, final Config config) throws Exception {
+    super(nodeId, config);
+    permissions = new boolean[config.nodes];
+    deferred = new boolean[config.nodes];
+    for (int node = 0; node < config.nodes; node++) {
+      if (node == nodeId) continue;
+      permissions[node] = nodeId < node;
+      if (!permissions[node]) missing++;
+    }
+  }
+
+  @Override
+  protected void request() {
+    lamportClock += 1;
+    requestTime = lamportClock;
+    requesting = true;
+
+    // Ask back only the permissions given away
+    for (int node = 0; node < config.nodes; node++) {
+      if (node != nodeId && !permissions[node]) {
+        eventLoop.send(node, new Message.Request(nodeId, requestTime));
+      }
+    }
+
+    testCriticalSection();
+  }
+
+  @Override
+  protected void release(final boolean finished) {
+    inCriticalSection = false;
+    leave();
+
+    // Answer the requests that came in meanwhile
+    for (int node = 0; node < config.nodes; node++) {
+      if (deferred[node]) {
+        deferred[node] = false;
+        grant(node);
+      }
+    }
+
+    if (finished) {
+      // Close writer before telling the others
+      closeLog();
+      eventLoop.broadcast(new Message.Release(nodeId, lamportClock, true, vector_clock));
+      check_finished(nodeId);
+    }
+  }
+
+  @Override
+  protected void handleMessage(final Message message) {
+    if (message instanceof Message.Request) {
+      log("received a request message.");
+      handleRequest((Message.Request) message);
+    } else if (message instanceof Message.Reply) {
+      log("received a reply message.");
+      handleReply((Message.Reply) message);
+    } else if (message instanceof Message.Release) {
+      log("received a release message.");
+      handleRelease((Message.Release) message);
+    }
+  }
+
+  private void handleRequest(final Message.Request requestMessage) {
+    final int source = requestMessage.getSource();
+    final int time = requestMessage.getTime();
+
+    // Update scalar clock
+    lamportClock = Integer.max(lamportClock, time) + 1;
+
+    // The own request goes first if it is earlier, ties broken by node ID
+    final boolean first = requesting && (requestTime < time || requestTime == time && nodeId < source);
+    if (inCriticalSection || first) {
+      deferred[source] = true;
+      return;
+    }
+
+    grant(source);
+    // The permission was held for the own request, ask for it back
+    if (requesting) {
+      eventLoop.send(source, new Message.Request(nodeId, requestTime));
+    }
+  }
+
+  private void handleReply(final Message.Reply replyMessage) {
+    final int source = replyMessage.getSource();
+
+    // Update scalar clock
+    lamportClock = Integer.max(lamportClock, replyMessage.getTime()) + 1;
+    checkVectorClock(replyMessage.getVectorClock());
+
+    if (!permissions[source]) {
+      permissions[source] = true;
+      missing--;
+    }
+
+    testCriticalSection();
+  }
+
+  private void handleRelease(final Message.Release releaseMessage) {
+    // Only sent by finished nodes
+    lamportClock = Integer.max(lamportClock, releaseMessage.getTime()) + 1;
+    check_finished(releaseMessage.getSource());
+  }
+
+  /**
+   * Give a peer the permission of this node
+   */
+  private void grant(final int node) {
+    if (permissions[node]) {
+      permissions[node] = false;
+      missing++;
+    }
+    eventLoop.send(node, new Message.Reply(nodeId, lamportClock, vector_clock));
+  }
+
+  // enter once every permission is held
+  private void testCriticalSection() {
+    if (requesting && missing == 0) {
+      requesting = false;
+      inCriticalSection = true;
+      enter();
+    }
+  }
+}